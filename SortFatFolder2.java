@@ -18,6 +18,15 @@
   likely be out of order in the parent folder.  (There are limits on how much
   cleaning can be done, even manually.)
 
+  Folders may also be sorted "in place" by moving entries out to a staging
+  folder and back again in order.  This keeps a folder's position in its parent
+  folder, and since FAT adds new entries at the end of a directory, only the
+  entries after the sorted beginning are moved.  Folders that are already in
+  sorted order are not moved at all.  By default, each folder is sorted in
+  place or in a new folder, whichever needs fewer moves; see the -m option.
+  Re-running this program on the same folders is much faster than the first
+  time.
+
   DO NOT USE THIS PROGRAM ON SYSTEM FOLDERS.  The only safe folders are those
   you create with your own files and no hidden or system files.  The program
   has no purpose on any file system that maintains an internal sorted order.
@@ -31,6 +40,106 @@
   folders are recreated as new.  Files will have the "archive" attribute set;
   they won't lose other attributes or metadata.
 
+  With the -v1 option, names on the command line are FAT16 or FAT32 volumes
+  (disk devices) or image files, and the directory entries are sorted directly
+  by rewriting the folder clusters in place.  This is much faster than moving
+  files one at a time, and also sorts the root folder.  The volume MUST NOT BE
+  MOUNTED (in use) by the operating system, and you must have permission to
+  write to the raw device.  Make a backup copy first.
+
+  Some devices fail too often when files are renamed.  The -m3 option sorts
+  in place by copying files to a folder on a fast local disk (the system's
+  temporary folder, or -m3(folder) to choose), deleting the originals, and
+  copying them back in sorted order with the same date and time.  Each file is
+  read back and its CRC32 checksum compared with the local copy before the
+  local copy is deleted.  Subfolders are still moved by renaming.
+
+  With the -n option (dry run), nothing is changed.  Each operation that would
+  be done is written to a plan file as one tab-separated line: create, delete,
+  move, rename, stamp (set date and time), or write (raw FAT folder).  The plan
+  goes in the system's temporary folder, or in the file given with -n(file),
+  and is never held in memory.  The summary has totals for each operation.
+  With -n2, the summary also has an estimated time, from timing a few
+  operations on a probe folder created and deleted next to the given folder;
+  this is the only thing a dry run changes, and only when asked.
+
+  While sorting, a journal of each operation is written in the parent folder
+  and deleted when the sort is successful.  If sorting stops because of an
+  error, the user, or a system crash, run the program again on the same folder
+  with the same options plus -j2 to finish the sort, or -j3 to move everything
+  back to the original folder (in any order).  Nothing is moved twice.
+
+  The -t1 option adds timing to the summary: the number of each type of file
+  system call, a histogram of how long they took, the time spent waiting for a
+  slow file system, and files moved per second.  -t(file) also writes the
+  timing as a CSV file, to compare devices and settings.
+
+  Batch mode (-b1, or -b(file) to read folder names from a file) groups the
+  folders by device and sorts each device in a separate worker thread, so that
+  many USB drives can be sorted at the same time.  Folders on the same device
+  are still sorted one after another.  All options apply to all folders, and
+  each line of output starts with the device name.  Files given with -e, -f3,
+  -n, and -t get the device in their names, such as "trace.usb0.txt", so that
+  workers don't write the same file.
+
+  With the -p1 option, files and subfolders are counted before sorting starts.
+  The status message (or a line on standard error for the console) then shows
+  the percent done, entries per second, and an estimate of the time left.
+
+  Names are compared in lowercase by default (-c0), or exactly (-c1).  With
+  -c2, numbers in names are compared by value, so "Track 2" comes before
+  "Track 10".  With -c3, names follow the rules of the local language, or of
+  a given locale and strength, such as -c3(tr) for Turkish dotted and dotless
+  "i".  Each name's sorting key is made once, before sorting.
+
+  Car stereos and music players often play files in directory order.  The -f3
+  option puts subfolders first, then files by the disc and track numbers in
+  their tags (ID3 for MP3, Vorbis comments for FLAC and Ogg, or MP4), then by
+  name, with files that have no track number last.  Only the tag headers are
+  read, by several threads at once.  -f3(file) keeps the numbers in the given
+  cache file, by path, size, and date, so that files aren't read again.  Raw
+  volumes (-v1) sort files by name, since tags can't be read from them.
+
+  The -k(keys) option replaces the -f order with a list of sort keys, such as
+  -k(dir,ext,size:desc,name) for subfolders first, then files by extension,
+  largest first, then by name.  Keys are dir, ext, name, size, date, and track,
+  each with an optional ":asc" or ":desc".  The list is compiled once, only the
+  attributes it names are read, and each entry gets one key string before
+  sorting, so there are no file system calls while comparing.  Raw volumes
+  (-v1) ignore -k and sort by the -c and -f options.
+
+  With the -i1 option, a manifest is written beside the given folder after a
+  successful sort (for example, "music.manifest.txt" for "music"), with each
+  folder's date and time stamp, number of entries, and subfolders.  The next
+  run with -i1 doesn't list folders whose stamp hasn't changed, so re-sorting
+  a large volume takes time for what changed, not for the whole volume.  This
+  depends on the system setting a folder's stamp when entries are added or
+  removed.  Linux does, but Windows doesn't update the stamp of a FAT folder,
+  so on Windows, -i1 writes the manifest and still lists every folder; -i2
+  skips folders by stamp anyway, for devices only changed on other systems.
+  Tools that copy folders with their old stamps can also hide a change.
+  Delete the manifest, or use -i0, to list every folder again.
+
+  The -e(file) option appends an event trace to the given file: one
+  tab-separated line for each folder sorted (start and end), each entry moved,
+  each subfolder created or deleted, each file copied (-m3), and each wait for
+  a slow file system, with the time, duration, outcome, entry count, bytes
+  copied, and path.  Every folder started has an end line, even after an
+  error, and the file is flushed often enough that a crash loses few lines.
+  Nothing is traced, and almost no time is spent, without this option.
+
+  The sorting itself is done by the SortFatFolder2Engine class, which has no
+  graphical interface and no static variables that change.  The command line is
+  parsed by SortFatFolder2Console, which also sorts any folder names given on
+  the command line without loading the graphical classes.  This class is only
+  the graphical interface.  Compile all source files together:
+
+      javac  SortFatFolder2*.java
+
+  Scripts that never need a graphical interface start faster with:
+
+      java  SortFatFolder2Console  -s  d:\temp  >report.txt
+
   Apache License or GNU General Public License
   --------------------------------------------
   SortFatFolder2 is free software and has been released under the terms and
@@ -68,9 +177,8 @@
 import java.awt.*;                // older Java GUI support
 import java.awt.event.*;          // older Java GUI event support
 import java.io.*;                 // standard I/O
-import java.text.*;               // number formatting
+import java.nio.channels.*;       // file channels for saving log file
 import java.util.*;               // calendars, dates, lists, maps, vectors
-import java.util.regex.*;         // regular expressions
 import javax.swing.*;             // newer Java GUI support
 import javax.swing.border.*;      // decorative borders
 
@@ -78,63 +186,40 @@ public class SortFatFolder2
 {
   /* constants */
 
-  static final String COPYRIGHT_NOTICE =
-    "Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL.";
-  static final int DEFAULT_HEIGHT = -1; // default window height in pixels
-  static final int DEFAULT_LEFT = 50; // default window left position ("x")
-  static final int DEFAULT_TOP = 50; // default window top position ("y")
-  static final int DEFAULT_WIDTH = -1; // default window width in pixels
   static final String EMPTY_STATUS = ""; // message when no status to display
-  static final int EXIT_FAILURE = -1; // incorrect request or errors found
-  static final int EXIT_SUCCESS = 1; // request completed successfully
-  static final int EXIT_UNKNOWN = 0; // don't know or nothing really done
   static final String[] FONT_SIZES = {"10", "12", "14", "16", "18", "20", "24",
-    "30"};                        // point sizes for text in output text area
+    "30"};                        // point sizes for text in output list
   static final int MIN_FRAME = 200; // minimum window height or width in pixels
-  static final int ORDER_SUBFIRST = 0; // put all subfolders before files
-  static final int ORDER_SUBLAST = 1; // put subfolders after all files
-  static final int ORDER_SUBMIXED = 2; // mix files and subfolders by name
-  static final String PROGRAM_TITLE =
-    "Sort FAT16/FAT32 Folder in Alphabetical Order - by: Keith Fenske";
   static final String SYSTEM_FONT = "Dialog"; // this font is always available
   static final int TIMER_DELAY = 700; // 0.700 seconds between status updates
-  static final int WAIT_CREATE = 20; // delay in ms before create subfolder
-  static final int WAIT_DELETE = 50; // delay in ms before delete subfolder
-  static final int WAIT_MOVE = 10; // delay in ms before move file, subfolder
-  static final int WAIT_RENAME = 200; // delay in ms before replace main folder
 
   /* class variables */
 
-  static JButton cancelButton;    // graphical button for <cancelFlag>
-  static boolean cancelFlag;      // our signal from user to stop processing
+  static SortFatFolder2Cancel cancel; // our signal from user to stop processing
+  static JButton cancelButton;    // graphical button for <cancel>
   static JCheckBox caseCheckbox;  // graphical option for <caseFlag>
-  static boolean caseFlag;        // true if upper/lower case names different
   static JButton exitButton;      // "Exit" button for ending this application
   static JFileChooser fileChooser; // asks for input and output file names
-  static String fontName;         // font name for text in output text area
+  static String fontName;         // font name for text in output list
   static JComboBox fontNameDialog; // graphical option for <fontName>
-  static int fontSize;            // point size for text in output text area
+  static int fontSize;            // point size for text in output list
+  static SortFatFolder2Engine engine; // sorts folders, keeps totals
   static JComboBox fontSizeDialog; // graphical option for <fontSize>
-  static NumberFormat formatComma; // formats with commas (digit grouping)
   static JFrame mainFrame;        // this application's GUI window
-  static boolean mswinFlag;       // true if running on Microsoft Windows
   static JButton openButton;      // "Open" button for files or folders
   static File[] openFileList;     // list of files selected by user
   static Thread openFilesThread;  // separate thread for doOpenButton() method
-  static JTextArea outputText;    // generated report while opening files
+  static JList outputList;        // generated report while opening files
+  static SortFatFolder2Log outputLog; // lines in <outputList>, from log file
+  static StringBuffer outputPending; // lines waiting for <outputLog>
+  static volatile String progressText; // percent, rate, time left, or empty
   static JCheckBox recurseCheckbox; // graphical option for <recurseFlag>
-  static boolean recurseFlag;     // true if we search folders and subfolders
   static JButton saveButton;      // "Save" button for writing output text
-  static int sortOrderIndex;      // sorting order for subfolders, files
-  static String sortPrefixFile;   // sorting prefix for files
-  static String sortPrefixFolder; // sorting prefix for subfolders
   static JLabel statusDialog;     // status message during extended processing
-  static String statusPending;    // will become <statusDialog> after delay
+  static volatile String statusPending; // will become <statusDialog> later
   static javax.swing.Timer statusTimer; // timer for updating status message
   static JRadioButton subFirstButton, subLastButton, subMixedButton;
                                   // sort order for subfolders versus files
-  static long totalMoved;         // total number of files, subfolders moved
-  static long totalSorted;        // total number of subfolders (re)sorted
 
 /*
   main() method
@@ -146,7 +231,6 @@ public class SortFatFolder2
   {
     ActionListener action;        // our shared action listener
     Font buttonFont;              // font for buttons, labels, status, etc
-    boolean consoleFlag;          // true if running as a console application
     Border emptyBorder;           // remove borders around text areas
     int i;                        // index variable
     boolean maximizeFlag;         // true if we maximize our main window
@@ -154,176 +238,41 @@ public class SortFatFolder2
                                   // position and size for <mainFrame>
     String word;                  // one parameter from command line
 
-    /* Initialize variables used by both console and GUI applications. */
+    /* Initialize variables used by the GUI application. */
 
     buttonFont = null;            // by default, don't use customized font
-    cancelFlag = false;           // don't cancel unless user complains
-    caseFlag = false;             // ignore uppercase/lowercase in file names
-    consoleFlag = false;          // assume no files or folders on command line
-    fontName = "Verdana";         // preferred font name for output text area
-    fontSize = 16;                // default point size for output text area
+    cancel = null;                // no cancel until we start sorting
+    engine = null;                // no engine until we start sorting
+    fontName = "Verdana";         // preferred font name for output list
+    fontSize = 16;                // default point size for output list
     mainFrame = null;             // during setup, there is no GUI window
-    maximizeFlag = false;         // by default, don't maximize our main window
-    mswinFlag = System.getProperty("os.name").startsWith("Windows");
-    recurseFlag = true;           // default for processing folders, subfolders
-//  sortOrderIndex =              // see call to setSortOrder() below
-//  sortPrefixFile =              // see call to setSortOrder() below
-//  sortPrefixFolder =            // see call to setSortOrder() below
+    outputLog = new SortFatFolder2Log(); // no log file until GUI starts sorting
+    outputPending = new StringBuffer(); // no lines waiting for output list
+    progressText = EMPTY_STATUS;  // no progress until we count entries
     statusPending = EMPTY_STATUS; // begin with no text for <statusDialog>
-    totalMoved = totalSorted = 0; // reset all global file counters
-    windowHeight = DEFAULT_HEIGHT; // default window position and size
-    windowLeft = DEFAULT_LEFT;
-    windowTop = DEFAULT_TOP;
-    windowWidth = DEFAULT_WIDTH;
-
-    /* Initialize number formatting styles. */
-
-    formatComma = NumberFormat.getInstance(); // current locale
-    formatComma.setGroupingUsed(true); // use commas or digit groups
-
-    /* Initialize sorting order for subfolders versus files.  This sets global
-    variables <sortOrderIndex>, <sortPrefixFile>, and <sortPrefixFolder>. */
-
-    setSortOrder(ORDER_SUBFIRST); // set sorting order for subfolders, files
-
-    /* Check command-line parameters for options. */
-
-    for (i = 0; i < args.length; i ++)
-    {
-      word = args[i].toLowerCase(); // easier to process if consistent case
-      if (word.length() == 0)
-      {
-        /* Ignore empty parameters, which are more common than you might think,
-        when programs are being run from inside scripts (command files). */
-      }
-
-      else if (word.equals("?") || word.equals("-?") || word.equals("/?")
-        || word.equals("-h") || (mswinFlag && word.equals("/h"))
-        || word.equals("-help") || (mswinFlag && word.equals("/help")))
-      {
-        showHelp();               // show help summary
-        System.exit(EXIT_UNKNOWN); // exit application after printing help
-      }
-
-      else if (word.equals("-c") || (mswinFlag && word.equals("/c"))
-        || word.equals("-c1") || (mswinFlag && word.equals("/c1")))
-      {
-        caseFlag = true;          // uppercase/lowercase distinct in file names
-      }
-      else if (word.equals("-c0") || (mswinFlag && word.equals("/c0")))
-      {
-        caseFlag = false;         // ignore uppercase/lowercase in file names
-      }
-
-      else if (word.equals("-f0") || (mswinFlag && word.equals("/f0")))
-      {
-        setSortOrder(ORDER_SUBFIRST); // put all subfolders before files
-      }
-      else if (word.equals("-f1") || (mswinFlag && word.equals("/f1")))
-      {
-        setSortOrder(ORDER_SUBLAST); // put subfolders after all files
-      }
-      else if (word.equals("-f2") || (mswinFlag && word.equals("/f2")))
-      {
-        setSortOrder(ORDER_SUBMIXED); // mix files and subfolders by name
-      }
-
-      else if (word.equals("-s") || (mswinFlag && word.equals("/s"))
-        || word.equals("-s1") || (mswinFlag && word.equals("/s1")))
-      {
-        recurseFlag = true;       // start doing subfolders
-      }
-      else if (word.equals("-s0") || (mswinFlag && word.equals("/s0")))
-        recurseFlag = false;      // stop doing subfolders
-
-      else if (word.startsWith("-u") || (mswinFlag && word.startsWith("/u")))
-      {
-        /* This option is followed by a font point size that will be used for
-        buttons, dialogs, labels, etc. */
-
-        int size = -1;            // default value for font point size
-        try                       // try to parse remainder as unsigned integer
-        {
-          size = Integer.parseInt(word.substring(2));
-        }
-        catch (NumberFormatException nfe) // if not a number or bad syntax
-        {
-          size = -1;              // set result to an illegal value
-        }
-        if ((size < 10) || (size > 99))
-        {
-          System.err.println("Dialog font size must be from 10 to 99: "
-            + args[i]);           // notify user of our arbitrary limits
-          showHelp();             // show help summary
-          System.exit(EXIT_FAILURE); // exit application after printing help
-        }
-        buttonFont = new Font(SYSTEM_FONT, Font.PLAIN, size); // for big sizes
-//      buttonFont = new Font(SYSTEM_FONT, Font.BOLD, size); // for small sizes
-        fontSize = size;          // use same point size for output text font
-      }
 
-      else if (word.startsWith("-w") || (mswinFlag && word.startsWith("/w")))
-      {
-        /* This option is followed by a list of four numbers for the initial
-        window position and size.  All values are accepted, but small heights
-        or widths will later force the minimum packed size for the layout. */
-
-        Pattern pattern = Pattern.compile(
-          "\\s*\\(\\s*(\\d{1,5})\\s*,\\s*(\\d{1,5})\\s*,\\s*(\\d{1,5})\\s*,\\s*(\\d{1,5})\\s*\\)\\s*");
-        Matcher matcher = pattern.matcher(word.substring(2)); // parse option
-        if (matcher.matches())    // if option has proper syntax
-        {
-          windowLeft = Integer.parseInt(matcher.group(1));
-          windowTop = Integer.parseInt(matcher.group(2));
-          windowWidth = Integer.parseInt(matcher.group(3));
-          windowHeight = Integer.parseInt(matcher.group(4));
-        }
-        else                      // bad syntax or too many digits
-        {
-          System.err.println("Invalid window position or size: " + args[i]);
-          showHelp();             // show help summary
-          System.exit(EXIT_FAILURE); // exit application after printing help
-        }
-      }
-
-      else if (word.equals("-x") || (mswinFlag && word.equals("/x")))
-        maximizeFlag = true;      // true if we maximize our main window
+    /* Check command-line parameters for options.  If there are file or
+    folder names, SortFatFolder2Console sorts them and exits, without loading
+    any graphical classes.  Otherwise, we get the options it found. */
 
-      else if (word.startsWith("-") || (mswinFlag && word.startsWith("/")))
-      {
-        System.err.println("Option not recognized: " + args[i]);
-        showHelp();               // show help summary
-        System.exit(EXIT_FAILURE); // exit application after printing help
-      }
-
-      else
-      {
-        /* Parameter does not look like an option.  Assume this is a file or
-        folder name. */
-
-        consoleFlag = true;       // don't allow GUI methods to be called
-        processFileOrFolder(new File(args[i]));
-        if (cancelFlag) break;    // exit <for> loop if cancel or fatal error
-      }
-    }
-
-    /* If running as a console application, print a summary of what we found
-    and/or changed.  Exit to the system with an integer status. */
-
-    if (consoleFlag)              // was at least one file/folder given?
+    SortFatFolder2Console.parseCommandLine(args); // returns if no names
+    if (SortFatFolder2Console.dialogSize > 0) // font size for dialogs, etc?
     {
-      printSummary();             // what we found and what was changed
-      if (cancelFlag)             // were any fatal errors found?
-        System.exit(EXIT_FAILURE);
-      else if ((totalMoved > 0) || (totalSorted > 0)) // did we find anything?
-        System.exit(EXIT_SUCCESS);
-      else                        // if there were no files at all
-        System.exit(EXIT_UNKNOWN);
+      buttonFont = new Font(SYSTEM_FONT, Font.PLAIN,
+        SortFatFolder2Console.dialogSize); // for big sizes
+//    buttonFont = new Font(SYSTEM_FONT, Font.BOLD,
+//      SortFatFolder2Console.dialogSize); // for small sizes
+      fontSize = SortFatFolder2Console.dialogSize; // same for output text
     }
+    maximizeFlag = SortFatFolder2Console.maximizeFlag;
+    windowHeight = SortFatFolder2Console.windowHeight;
+    windowLeft = SortFatFolder2Console.windowLeft;
+    windowTop = SortFatFolder2Console.windowTop;
+    windowWidth = SortFatFolder2Console.windowWidth;
 
     /* There were no file or folder names on the command line.  Open the
     graphical user interface (GUI).  We don't need to be inside an if-then-else
-    construct here because the console application called System.exit() above.
+    construct here because the console application called System.exit().
     The standard Java interface style is the most reliable, but you can switch
     to something closer to the local system, if you want. */
 
@@ -346,7 +295,7 @@ public class SortFatFolder2
     statusTimer = new javax.swing.Timer(TIMER_DELAY, action);
                                   // update status message on clock ticks only
 
-    /* If our preferred font is not available for the output text area, then
+    /* If our preferred font is not available for the output list, then
     use the boring default font for the local system. */
 
     if (fontName.equals((new Font(fontName, Font.PLAIN, fontSize)).getFamily())
@@ -410,21 +359,24 @@ public class SortFatFolder2
     ButtonGroup group22 = new ButtonGroup();
 
     subFirstButton = new JRadioButton("Put subfolders before files, ",
-      (sortOrderIndex == ORDER_SUBFIRST));
+      (SortFatFolder2Console.sortOrderIndex
+      == SortFatFolder2Engine.ORDER_SUBFIRST));
     if (buttonFont != null) subFirstButton.setFont(buttonFont);
     subFirstButton.addActionListener(action); // do last so don't fire early
     group22.add(subFirstButton);
     panel21.add(subFirstButton);
 
     subLastButton = new JRadioButton("files before subfolders, or ",
-      (sortOrderIndex == ORDER_SUBLAST));
+      (SortFatFolder2Console.sortOrderIndex
+      == SortFatFolder2Engine.ORDER_SUBLAST));
     if (buttonFont != null) subLastButton.setFont(buttonFont);
     subLastButton.addActionListener(action); // do last so don't fire early
     group22.add(subLastButton);
     panel21.add(subLastButton);
 
     subMixedButton = new JRadioButton("mix files with subfolders.",
-      (sortOrderIndex == ORDER_SUBMIXED));
+      (SortFatFolder2Console.sortOrderIndex
+      == SortFatFolder2Engine.ORDER_SUBMIXED));
     if (buttonFont != null) subMixedButton.setFont(buttonFont);
     subMixedButton.addActionListener(action); // do last so don't fire early
     group22.add(subMixedButton);
@@ -467,7 +419,8 @@ public class SortFatFolder2
 
     JPanel panel33 = new JPanel(new FlowLayout(FlowLayout.CENTER, 0, 0));
 
-    recurseCheckbox = new JCheckBox("sort subfolders", recurseFlag);
+    recurseCheckbox = new JCheckBox("sort subfolders",
+      SortFatFolder2Console.recurseFlag);
     if (buttonFont != null) recurseCheckbox.setFont(buttonFont);
     recurseCheckbox.setToolTipText("Select to sort folders and subfolders.");
     recurseCheckbox.addActionListener(action); // do last so don't fire early
@@ -475,7 +428,8 @@ public class SortFatFolder2
 
     panel33.add(Box.createHorizontalStrut(10));
 
-    caseCheckbox = new JCheckBox("strict case in file names", caseFlag);
+    caseCheckbox = new JCheckBox("strict case in file names",
+      SortFatFolder2Console.caseFlag);
     if (buttonFont != null) caseCheckbox.setFont(buttonFont);
     caseCheckbox.setToolTipText(
       "Select if uppercase, lowercase different in file names.");
@@ -493,14 +447,17 @@ public class SortFatFolder2
     JPanel panel41 = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
     panel41.add(panel01);
 
-    /* Create a scrolling text area for the generated output. */
-
-    outputText = new JTextArea(20, 40);
-    outputText.setEditable(false); // user can't change this text area
-    outputText.setFont(new Font(fontName, Font.PLAIN, fontSize));
-    outputText.setLineWrap(false); // don't wrap text lines
-    outputText.setMargin(new Insets(5, 6, 5, 6)); // top, left, bottom, right
-    outputText.setText(
+    /* Create a scrolling list for the generated output.  The list only asks
+    for the lines that are visible, which the log reads from its file, so all
+    lines from a run can be shown without keeping them in memory.  Every line
+    has the same height, and the width of the longest line, so that the list
+    never asks for all lines to measure them. */
+
+    outputList = new JList(outputLog);
+    outputList.setBorder(BorderFactory.createEmptyBorder(5, 6, 5, 6));
+                                  // top, left, bottom, right
+    outputList.setVisibleRowCount(20); // rows shown before window is sized
+    outputLog.addLines(
       "\nSort the directory entries for a FAT16 or FAT32 file folder.  Unlike"
       + "\nnewer file systems (NTFS), the FAT file system does not keep"
       + "\ndirectories in alphabetical order."
@@ -511,8 +468,9 @@ public class SortFatFolder2
       + "\n\nCopyright (c) 2017 by Keith Fenske.  By using this program, you"
       + "\nagree to terms and conditions of the Apache License and/or GNU"
       + "\nGeneral Public License.\n\n");
+    setOutputFont();              // font, line height, and line width
 
-    JScrollPane panel51 = new JScrollPane(outputText);
+    JScrollPane panel51 = new JScrollPane(outputList);
     panel51.setBorder(emptyBorder); // no border necessary here
 
     /* Create an entire panel just for the status message.  Set margins with a
@@ -529,18 +487,18 @@ public class SortFatFolder2
     panel61.add(Box.createHorizontalStrut(10), BorderLayout.EAST);
 //  panel61.add(Box.createVerticalStrut(5), BorderLayout.SOUTH);
 
-    /* Combine buttons and options with output text.  The text area expands and
-    contracts with the window size.  Put our status message at the bottom. */
+    /* Combine buttons and options with output text.  The output list expands
+    and contracts with the window size.  Put our status message at the bottom. */
 
     JPanel panel71 = new JPanel(new BorderLayout(0, 0));
     panel71.add(panel41, BorderLayout.NORTH); // buttons and options
-    panel71.add(panel51, BorderLayout.CENTER); // text area
+    panel71.add(panel51, BorderLayout.CENTER); // output list
     panel71.add(panel61, BorderLayout.SOUTH); // status message
 
     /* Create the main window frame for this application.  We supply our own
     margins using the edges of the frame's border layout. */
 
-    mainFrame = new JFrame(PROGRAM_TITLE);
+    mainFrame = new JFrame(SortFatFolder2Console.PROGRAM_TITLE);
     Container panel72 = mainFrame.getContentPane(); // where content meets frame
     panel72.setLayout(new BorderLayout(0, 0));
     panel72.add(Box.createVerticalStrut(15), BorderLayout.NORTH); // top margin
@@ -565,6 +523,7 @@ public class SortFatFolder2
 
   } // end of main() method
 
+
 // ------------------------------------------------------------------------- //
 
 /*
@@ -573,7 +532,7 @@ public class SortFatFolder2
   This method is called while we are opening files or folders if the user wants
   to end the processing early, perhaps because it is taking too long.  We must
   cleanly terminate any secondary threads.  Leave whatever output has already
-  been generated in the output text area.
+  been generated in the output list.
 */
   static void doCancelButton()
   {
@@ -584,7 +543,7 @@ public class SortFatFolder2
     {
       return;                     // user cancelled the cancel, go back to work
     }
-    cancelFlag = true;            // tell other threads that all work stops now
+    cancel.cancel();              // tell other threads that all work stops now
     putOutput("Cancelled by user."); // print message and scroll
   }
 
@@ -617,10 +576,16 @@ public class SortFatFolder2
     for a long time and the user panics. */
 
     cancelButton.setEnabled(true); // enable button to cancel this processing
-    cancelFlag = false;           // but don't cancel unless user complains
+    cancel = new SortFatFolder2Cancel(); // don't cancel unless user complains
     openButton.setEnabled(false); // suspend "Open" button until we are done
-    outputText.setText("");       // clear output text area
-    totalMoved = totalSorted = 0; // reset all global file counters
+    outputPending.setLength(0);   // forget anything not yet shown
+    try { outputLog.open(); }     // clear output list, new log file for run
+    catch (IOException ioe)       // keep output in memory instead
+    {
+      putOutput("Can't create log file: " + ioe.getMessage());
+    }
+    engine = new SortFatFolder2Engine(SortFatFolder2Console.makeOptions(),
+      new SortFatFolder2User(), cancel); // new engine with new totals
 
     setStatusMessage(EMPTY_STATUS); // clear text in status message
     statusTimer.start();          // start updating status on clock ticks
@@ -651,22 +616,17 @@ public class SortFatFolder2
 
     for (i = 0; i < openFileList.length; i ++)
     {
-      if (cancelFlag) break;      // exit <for> loop if cancel or fatal error
-      processFileOrFolder(openFileList[i]); // process this file or folder
+      if (cancel.isCancelled()) break; // exit <for> loop if cancel or error
+      engine.processFileOrFolder(openFileList[i]); // process file or folder
     }
 
     /* Print a summary and scroll the output, even if we were cancelled. */
 
-    printSummary();               // what we found and what was changed
-
-    /* We are done.  Turn off the "Cancel" button and allow the user to click
-    the "Start" button again. */
+    engine.printSummary();        // what we found and what was changed
 
-    cancelButton.setEnabled(false); // disable "Cancel" button
-    openButton.setEnabled(true);  // enable "Open" button
-
-    statusTimer.stop();           // stop updating status message by timer
-    setStatusMessage(EMPTY_STATUS); // and clear any previous status message
+    /* We are done.  The status timer notices when this thread ends, shows the
+    last output, and resets the buttons, so that we never touch Swing from
+    here.  See doStatusTimer(). */
 
   } // end of doOpenRunner() method
 
@@ -675,15 +635,18 @@ public class SortFatFolder2
   doSaveButton() method
 
   Ask the user for an output file name, create or replace that file, and copy
-  the contents of our output text area to that file.  The output file will be
-  in the default character set for the system, so if there are special Unicode
+  the contents of our output list to that file.  The output file will be in
+  the default character set for the system, so if there are special Unicode
   characters in the displayed text (Arabic, Chinese, Eastern European, etc),
   then you are better off copying and pasting the output text directly into a
   Unicode-aware application like Microsoft Word.
+
+  Lines waiting from the secondary thread are written to the log first.  Only
+  the GUI thread writes the log, so the copy holds no lock, and the secondary
+  thread keeps sorting while a large log is saved.
 */
   static void doSaveButton()
   {
-    FileWriter output;            // output file stream
     File userFile;                // file chosen by the user
 
     /* Ask the user for an output file name. */
@@ -730,12 +693,8 @@ public class SortFatFolder2
 
     /* Write lines to output file. */
 
-    try                           // catch file I/O errors
-    {
-      output = new FileWriter(userFile); // try to open output file
-      outputText.write(output);   // couldn't be much easier for writing!
-      output.close();             // try to close output file
-    }
+    flushOutput();                // everything so far, not only what we see
+    try { outputLog.save(userFile); } // log file, then any lines in memory
     catch (IOException ioe)
     {
       putOutput("Can't write to text file: " + ioe.getMessage());
@@ -744,186 +703,84 @@ public class SortFatFolder2
 
 
 /*
-  moveFiles() method
+  doStatusTimer() method
 
-  Move all files and subfolders from an original folder to a new folder.  We do
-  this in Java by renaming; there is no explicit "move" method.
+  Called on the GUI thread each time the status timer ticks, while our
+  secondary thread is running.  Lines from putOutput() are shown in one batch,
+  then the status message is updated, after any progress from showProgress().
+  When the secondary thread has ended, turn off the "Cancel" button, allow the
+  user to click the "Open" button again, and stop the timer.
 */
-  static void moveFiles(File oldFolder, File newFolder)
+  static void doStatusTimer()
   {
-    File[] contents;              // sorted contents of <oldFolder>
-    int i;                        // index variable
-    File next;                    // next File object from <contents>
-    long stamp;                   // date and time stamp for file
-    File target;                  // where next File object goes
+    boolean doneFlag;             // true if secondary thread has ended
+    String text;                  // status message, with any progress
 
-    if (cancelFlag) return;       // stop if user cancel or fatal error
-    contents = sortFileList(oldFolder.listFiles()); // no filter, but sorted
-    for (i = 0; i < contents.length; i ++) // for each file in order
+    doneFlag = (openFilesThread == null) || (openFilesThread.isAlive()
+      == false);                  // check first, so no output is left behind
+    flushOutput();                // show lines waiting for output list
+    if (doneFlag)                 // finished, cancelled, or fatal error
     {
-      if (cancelFlag) return;     // stop if user cancel or fatal error
-      next = contents[i];         // get next File object from <contents>
-      if (next.exists() == false) continue; // ignore missing files, folders
-      setStatusMessage(next.getPath()); // running status is path + file name
-      stamp = next.lastModified(); // save current date and time stamp
-      target = new File(newFolder, next.getName()); // where to rename
-
-      if (recurseFlag && next.isDirectory()) // recursive subfolder?
-      {
-        putOutput("Resorting subfolder: " + next.getPath());
-        waitForSystem(WAIT_CREATE); // delay before create subfolder
-        if (target.mkdir() == false) // create copy of this subfolder
-        {
-          putOutput("Can't create subfolder: " + target.getPath());
-          cancelFlag = true;      // don't do anything more
-          return;
-        }
-        moveFiles(next, target);  // move files and subfolders
-
-        if (cancelFlag) return;   // stop if user cancel or fatal error
-
-        waitForSystem(WAIT_DELETE); // delay before delete subfolder
-        if (next.delete() == false) // delete original folder, now empty
-        {
-          putOutput("Can't delete subfolder: " + next.getPath());
-          cancelFlag = true;
-          return;
-        }
-        totalSorted ++;           // one more recursive subfolder done
-      }
-
-      else                        // file or subfolder to be moved
-      {
-        waitForSystem(WAIT_MOVE); // delay before move file, subfolder
-        if (next.renameTo(target) == false) // try to move by renaming
-        {
-          putOutput("Can't rename " + next.getPath() + " as "
-            + target.getPath());
-          cancelFlag = true;
-          return;
-        }
-        totalMoved ++;            // one more file or subfolder moved
-      }
-
-      target.setLastModified(stamp); // date time stamp, ignore errors
+      cancelButton.setEnabled(false); // disable "Cancel" button
+      openButton.setEnabled(true); // enable "Open" button
+      statusTimer.stop();         // stop updating status message by timer
+      statusPending = EMPTY_STATUS; // and clear any previous status message
+      progressText = EMPTY_STATUS; // and any progress
+      outputLog.close();          // complete log file, ready to save
     }
-  } // end of moveFiles() method
-
-
-/*
-  printSummary() method
-
-  Tell the user what we found and what was changed.
-*/
-  static void printSummary()
-  {
-    if (cancelFlag)               // if cancelled by user or fatal error
-    {
-      putOutput("After an error, files may be in their original folder or a temporary folder.");
-    }
-    putOutput("Moved " + formatComma.format(totalMoved)
-      + ((totalMoved == 1) ? " file (or subfolder)" : " files (or subfolders)")
-      + " and sorted " + formatComma.format(totalSorted)
-      + ((totalSorted == 1) ? " subfolder." : " subfolders."));
+    text = (progressText.length() > 0) ? (progressText + " - "
+      + statusPending) : statusPending; // progress first, if counted
+    if (text.equals(statusDialog.getText()) == false)
+      statusDialog.setText(text); // new status, update the display
   }
 
 
 /*
-  processFileOrFolder() method
+  flushOutput() method
 
-  The caller gives us a Java File object that may be a file, a folder, or just
-  random garbage.  We only do whole folders (directories) in this program, not
-  individual files.
+  Move all lines waiting in <outputPending> to the log and the output list with
+  one update and one scroll.  Must be called on the GUI thread.  The cost of
+  updating the list is then the same for a batch of lines as for a single line,
+  and the secondary thread never waits for Swing or for the log file.
 */
-  static void processFileOrFolder(File givenFile)
+  static void flushOutput()
   {
-    long stamp;                   // date and time stamp for file
-    File startFolder;             // user's given folder
-    File startParent;             // parent folder of given folder
-    File startTemp;               // temporary then new folder
-
-    if (cancelFlag) return;       // stop if user cancel or fatal error
-
-    /* First we need the real (canonical) name of the folder.  Then we need the
-    parent folder, so we can create and rename a new folder. */
-
-    startFolder = givenFile;      // look closely at user's folder
-    try { startFolder = startFolder.getCanonicalFile(); }
-    catch (IOException ioe) { startFolder = null; }
-    if ((startFolder == null) || (startFolder.isDirectory() == false))
-    {
-      putOutput("Not a folder (directory): " + givenFile.getPath());
-      cancelFlag = true;          // don't do anything more
-      return;
-    }
-    stamp = startFolder.lastModified(); // save current date and time stamp
-    putOutput("Original folder is: " + startFolder.getPath());
-
-    startParent = startFolder.getParentFile(); // also need parent folder
-    if (startParent == null)      // happens if given root folder on a drive
-    {
-      putOutput("Can't get parent folder for: " + startFolder.getPath());
-      cancelFlag = true;
-      return;
-    }
-    putOutput("Parent folder is: " + startParent.getPath());
+    int width;                    // longest line before adding new lines
+    String text;                  // all lines waiting, with newlines
 
-    startTemp = new File(startParent, "Temp" + System.currentTimeMillis());
-//  waitForSystem(WAIT_CREATE);   // delay before create folder
-    if (startTemp.mkdir() == false) // we need a new and temporary folder
+    synchronized (outputPending)  // take everything, leave buffer empty
     {
-      putOutput("Can't create temporary folder: " + startTemp.getPath());
-      cancelFlag = true;
-      return;
+      if (outputPending.length() == 0) // nothing to show?
+        return;
+      text = outputPending.toString();
+      outputPending.setLength(0);
     }
-    putOutput("Temporary folder is: " + startTemp.getPath());
-    if (cancelFlag) return;       // stop if user cancel or fatal error
-
-    /* Call a recursive subroutine to move all files and subfolders from the
-    user's given folder to our new temporary folder. */
-
-    moveFiles(startFolder, startTemp); // move files and subfolders
-    if (cancelFlag) return;       // stop if user cancel or fatal error
-
-    /* Delete the folder given by the user, and rename our temporary folder to
-    have the original name. */
-
-    waitForSystem(WAIT_DELETE);   // delay before delete original folder
-    if (startFolder.delete() == false) // delete original folder, now empty
-    {
-      putOutput("Can't delete original folder: " + startFolder.getPath());
-      cancelFlag = true;
-      return;
-    }
-
-    waitForSystem(WAIT_RENAME);   // delay before replace original folder
-    if (startTemp.renameTo(startFolder) == false) // temporary becomes original
-    {
-      putOutput("Can't rename " + startTemp.getPath() + " as "
-        + startFolder.getPath());
-      cancelFlag = true;
-      return;
-    }
-
-    startFolder.setLastModified(stamp); // date time stamp, ignore errors
-
-  } // end of processFileOrFolder() method
+    width = outputLog.widest.length(); // so we only measure when it grows
+    outputLog.addLines(text);     // graphical output goes into log and list
+    if (outputLog.widest.length() > width) // new longest line?
+      setOutputFont();            // same font, wider lines
+    outputList.ensureIndexIsVisible(outputLog.getSize() - 1);
+                                  // force scroll to end of list
+  }
 
 
 /*
   putOutput() method
 
-  Append a complete line of text to the end of the output text area.  We add a
+  Append a complete line of text to the end of the output list.  We add a
   newline character at the end of the line, not the caller.  By forcing all
   output to go through this same method, one complete line at a time, the
   generated output is cleaner and can be redirected.
 
-  The output text area is forced to scroll to the end, after the text line is
-  written, by selecting character positions that are much too large (and which
-  are allowed by the definition of the JTextComponent.select() method).  This
-  is easier and faster than manipulating the scroll bars directly.  However, it
-  does cancel any selection that the user might have made, for example, to copy
-  text from the output area.
+  Swing components may only be changed on the GUI thread (the event dispatch
+  thread).  Lines from our secondary thread wait in a buffer until the next
+  tick of the status timer, and are then shown together; see flushOutput().
+  Lines from the GUI thread itself are shown immediately.
+
+  The secondary thread only appends to a string buffer here, with no file
+  writes and no Swing calls, so it never waits for the log file or for the
+  user saving a copy of the log.  The output list is forced to scroll to the
+  end after each batch of lines is shown.
 */
   static void putOutput(String text)
   {
@@ -931,45 +788,37 @@ public class SortFatFolder2
       System.out.println(text);   // console output goes onto standard output
     else
     {
-      outputText.append(text + "\n"); // graphical output goes into text area
-      outputText.select(999999999, 999999999); // force scroll to end of text
+      synchronized (outputPending) // one complete line at a time
+      {
+        outputPending.append(text);
+        outputPending.append('\n');
+      }
+      if (SwingUtilities.isEventDispatchThread()) // on the GUI thread?
+        flushOutput();            // yes, show immediately
     }
   }
 
 
 /*
-  setSortOrder() method
+  setOutputFont() method
 
-  Several global variables must be set to ensure the correct sorting order when
-  folders contain both files and subfolders.
+  Set the font for the output list from <fontName> and <fontSize>.  All lines
+  have the same height, and the same width as the longest line so far, so that
+  the list doesn't read every line from the log file to measure it.  Called
+  again when the font changes or when a longer line is added.
 */
-  static void setSortOrder(int index)
+  static void setOutputFont()
   {
-    switch (index)
-    {
-      case (ORDER_SUBFIRST):      // put all subfolders before files
-        sortOrderIndex = index;
-        sortPrefixFile = "2 ";
-        sortPrefixFolder = "1 ";
-        break;
-
-      case (ORDER_SUBLAST):       // put subfolders after all files
-        sortOrderIndex = index;
-        sortPrefixFile = "1 ";
-        sortPrefixFolder = "2 ";
-        break;
-
-      case (ORDER_SUBMIXED):      // mix files and subfolders by name
-        sortOrderIndex = index;
-        sortPrefixFile = sortPrefixFolder = "";
-        break;
-
-      default:
-        System.err.println("Error in setSortOrder(): unknown index = "
-          + index);               // should never happen, so write on console
-        break;
-    }
-  } // end of setSortOrder() method
+    Font font;                    // font for text in output list
+    FontMetrics metrics;          // size of characters in <font>
+
+    font = new Font(fontName, Font.PLAIN, fontSize);
+    metrics = outputList.getFontMetrics(font);
+    outputList.setFont(font);
+    outputList.setFixedCellHeight(metrics.getHeight());
+    outputList.setFixedCellWidth(metrics.stringWidth(outputLog.widest)
+      + metrics.charWidth('m')); // a little extra for proportional fonts
+  }
 
 
 /*
@@ -979,116 +828,35 @@ public class SortFatFolder2
   This gives the user some indication of our progress when processing is slow.
   If the update timer is running, then this message will not appear until the
   timer kicks in.  This prevents the status from being updated too often, and
-  hence being unreadable.
+  hence being unreadable.  Only the GUI thread changes the status dialog.
 */
   static void setStatusMessage(String text)
   {
     if (mainFrame == null)        // are we running as a console application?
       return;                     // yes, console doesn't show running status
     statusPending = text;         // always save caller's status message
-    if (statusTimer.isRunning())  // are we updating on a timed basis?
+    if (statusTimer.isRunning()   // are we updating on a timed basis?
+      || (SwingUtilities.isEventDispatchThread() == false))
+    {
       return;                     // yes, wait for the timer to do an update
+    }
     statusDialog.setText(statusPending); // show the status message now
   }
 
 
 /*
-  showHelp() method
-
-  Show the help summary.  This is a UNIX standard and is expected for all
-  console applications, even very simple ones.
-*/
-  static void showHelp()
-  {
-    System.err.println();
-    System.err.println(PROGRAM_TITLE);
-    System.err.println();
-    System.err.println("  java  SortFatFolder2  [options]  [folderNames]");
-    System.err.println();
-    System.err.println("Options:");
-    System.err.println("  -? = -help = show summary of command-line syntax");
-    System.err.println("  -c0 = ignore uppercase/lowercase in file names (default)");
-    System.err.println("  -c1 = -c = strict Unicode order for case in file names");
-    System.err.println("  -f0 = put subfolders before files in each directory (default)");
-    System.err.println("  -f1 = put subfolders after files");
-    System.err.println("  -f2 = mix files and subfolders by name only");
-    System.err.println("  -s0 = process selected folders only, no subfolders");
-    System.err.println("  -s1 = -s = process folders and subfolders (default)");
-    System.err.println("  -u# = font size for buttons, dialogs, etc; default is local system;");
-    System.err.println("      example: -u16");
-    System.err.println("  -w(#,#,#,#) = normal window position: left, top, width, height;");
-    System.err.println("      example: -w(50,50,700,500)");
-    System.err.println("  -x = maximize application window; default is normal window");
-    System.err.println();
-    System.err.println("Output may be redirected with the \">\" operator.  If no folder names are given");
-    System.err.println("on the command line, then a graphical interface will open.");
-    System.err.println();
-    System.err.println(COPYRIGHT_NOTICE);
-//  System.err.println();
-
-  } // end of showHelp() method
+  showProgress() method
 
-
-/*
-  sortFileList() method
-
-  When we ask for a list of files or subfolders in a directory, the list is not
-  likely to be in our preferred order.  Java does not guarantee any particular
-  order, and the observed order is whatever is supplied by the underlying file
-  system (which can be very jumbled for FAT16/FAT32).  We would like the file
-  names to be sorted, and since we recurse on subfolders, we also want the
-  subfolders to appear in order.
-
-  The caller's parameter may be <null> and this may happen if the caller asks
-  File.listFiles() for the contents of a protected system directory.  All calls
-  to listFiles() in this program are wrapped inside a call to us, so we replace
-  a null parameter with an empty array as our result.
+  The engine tells us how many entries are in their final position, out of the
+  total counted before sorting, and the moving average of entries per second.
+  The status timer shows the progress in front of the status message.  A total
+  of zero means that there is no progress to show.
 */
-  static File[] sortFileList(File[] input)
+  static void showProgress(long done, long total, double rate)
   {
-    String fileName;              // file name without the path
-    int i;                        // index variable
-    TreeMap list;                 // our list of files
-    File[] result;                // our result
-    StringBuffer sortKey;         // created sorting key for each file
-
-    if (input == null)            // were we given a null pointer?
-      result = new File[0];       // yes, replace with an empty array
-    else if (input.length < 2)    // don't sort lists with zero or one element
-      result = input;             // just copy input array as result array
-    else
-    {
-      /* First, create a sorted list with our choice of index keys and the File
-      objects as data.  Names are sorted as files or folders, then in lowercase
-      to ignore differences in uppercase versus lowercase, then in the original
-      form for systems where case is distinct. */
-
-      list = new TreeMap();       // create empty sorted list with keys
-      sortKey = new StringBuffer(); // allocate empty string buffer for keys
-      for (i = 0; i < input.length; i ++)
-      {
-        sortKey.setLength(0);     // empty any previous contents of buffer
-        sortKey.append(input[i].isDirectory() ? sortPrefixFolder
-          : sortPrefixFile);      // put files before/after subfolders
-        fileName = input[i].getName(); // get the file name without the path
-        if (caseFlag == false)    // do we ignore uppercase versus lowercase?
-        {
-          sortKey.append(fileName.toLowerCase()); // start with same case
-          sortKey.append(" ");    // separate lowercase from original case
-        }
-        sortKey.append(fileName); // then sort file name on original case
-        list.put(sortKey.toString(), input[i]); // put file into sorted list
-      }
-
-      /* Second, now that the TreeMap object has done all the hard work of
-      sorting, pull the File objects from the list in order as determined by
-      the sort keys that we created. */
-
-      result = (File[]) list.values().toArray(new File[0]);
-    }
-    return(result);               // give caller whatever we could find
-
-  } // end of sortFileList() method
+    progressText = (total == 0) ? EMPTY_STATUS
+      : SortFatFolder2Console.formatProgress(done, total, rate);
+  }
 
 
 /*
@@ -1106,28 +874,28 @@ public class SortFatFolder2
     }
     else if (source == caseCheckbox) // uppercase/lowercase in file names
     {
-      caseFlag = caseCheckbox.isSelected();
+      SortFatFolder2Console.caseFlag = caseCheckbox.isSelected();
     }
     else if (source == exitButton) // "Exit" button
     {
       System.exit(0);             // always exit with zero status from GUI
     }
-    else if (source == fontNameDialog) // font name for output text area
+    else if (source == fontNameDialog) // font name for output list
     {
       /* We can safely assume that the font name is valid, because we obtained
       the names from getAvailableFontFamilyNames(), and the user can't edit
       this dialog field. */
 
       fontName = (String) fontNameDialog.getSelectedItem();
-      outputText.setFont(new Font(fontName, Font.PLAIN, fontSize));
+      setOutputFont();            // new font, line height, and line width
     }
-    else if (source == fontSizeDialog) // point size for output text area
+    else if (source == fontSizeDialog) // point size for output list
     {
       /* We can safely parse the point size as an integer, because we supply
       the only choices allowed, and the user can't edit this dialog field. */
 
       fontSize = Integer.parseInt((String) fontSizeDialog.getSelectedItem());
-      outputText.setFont(new Font(fontName, Font.PLAIN, fontSize));
+      setOutputFont();            // new font, line height, and line width
     }
     else if (source == openButton) // "Open" button for files or folders
     {
@@ -1135,28 +903,30 @@ public class SortFatFolder2
     }
     else if (source == recurseCheckbox) // if we search folders and subfolders
     {
-      recurseFlag = recurseCheckbox.isSelected();
+      SortFatFolder2Console.recurseFlag = recurseCheckbox.isSelected();
     }
     else if (source == saveButton) // "Save Output" button
     {
-      doSaveButton();             // write output text area to a file
+      doSaveButton();             // write output list to a file
     }
     else if (source == statusTimer) // update timer for status message text
     {
-      if (statusPending.equals(statusDialog.getText()) == false)
-        statusDialog.setText(statusPending); // new status, update the display
+      doStatusTimer();            // waiting output, status, end of thread
     }
     else if (source == subFirstButton) // radio button for file, subfolder order
     {
-      setSortOrder(ORDER_SUBFIRST); // put all subfolders before files
+      SortFatFolder2Console.sortOrderIndex =
+        SortFatFolder2Engine.ORDER_SUBFIRST; // subfolders first
     }
     else if (source == subLastButton) // radio button for file, subfolder order
     {
-      setSortOrder(ORDER_SUBLAST); // put subfolders after all files
+      SortFatFolder2Console.sortOrderIndex =
+        SortFatFolder2Engine.ORDER_SUBLAST; // files first
     }
     else if (source == subMixedButton) // radio button for file, subfolder order
     {
-      setSortOrder(ORDER_SUBMIXED); // mix files and subfolders by name
+      SortFatFolder2Console.sortOrderIndex =
+        SortFatFolder2Engine.ORDER_SUBMIXED; // mixed
     }
     else                          // fault in program logic, not by user
     {
@@ -1165,45 +935,370 @@ public class SortFatFolder2
     }
   } // end of userButton() method
 
+} // end of SortFatFolder2 class
+
+// ------------------------------------------------------------------------- //
 
 /*
-  waitForSystem() method
-
-  Wait for a short period of time, so the system can finish pending operations
-  on the file directory, such as after deleting the original main folder and
-  before renaming the temporary copy to be the main folder.  This shouldn't be
-  necessary but sometimes helps (not always).
-
-  The sleep() method is not precise, and often results in a longer delay than
-  what was requested.  For example, a request for 10 ms produces a delay of
-  about 15 ms in Java 1.4 to 7 on Windows XP/7.  Some smaller values can be
-  more accurate in other situations, but for this program, values below 10 ms
-  have less of an effect on performance than operating system overhead.
-
-  The default delays (WAIT*) can be set to zero on well-behaved systems.  Any
-  need for longer delays indicates unusual hardware or a problem with optional
-  software (i.e., anti-virus) being called when files are moved or folders are
-  created and deleted.  Temporarily turn off your anti-virus and try again.
+  SortFatFolder2Log class
+
+  The lines shown in the output list of the graphical interface.  During a run,
+  each line is written to a temporary log file in the default character set,
+  and the list reads back only the pages of lines that it shows, so memory
+  stays the same no matter how long we run.  We remember where each page starts
+  in the file, not where each line starts.  Lines are kept in memory before the
+  first run (the welcome text), and after the log file can't be written, so
+  that nothing is lost.  Only the GUI thread may use this class.
 */
-  static void waitForSystem(
-    int delay)                    // wait time in milliseconds (ms)
+
+class SortFatFolder2Log extends AbstractListModel
+{
+  /* constants */
+
+  static final int CACHE_PAGES = 4; // pages of lines read back and kept
+  static final String LINE_SEPARATOR = System.getProperty("line.separator");
+                                  // end of line in log and saved text files
+  static final int PAGE_LINES = 256; // lines in each page of log file
+  static final long serialVersionUID = 1L; // list models are serializable;
+                                  // this one is never written
+
+  /* instance variables */
+
+  int[] cachePages;               // page number in each cache slot, or -1
+  String[][] cacheLines;          // lines from page in each cache slot
+  int cacheNext;                  // next cache slot to be replaced
+  File file;                      // log file for current run, or <null>
+  int fileLines;                  // number of lines written to <file>
+  long fileSize;                  // number of bytes written to <file>
+  ArrayList memory;               // lines after <fileLines>, not in <file>
+  OutputStream output;            // buffered output to <file>, or <null>
+  long[] pageStarts;              // byte offset of each page in <file>
+  RandomAccessFile reader;        // reads pages back from <file>, or <null>
+  int size;                       // total number of lines, file and memory
+  String widest;                  // longest line, by number of characters
+
+  public SortFatFolder2Log()
   {
-    if (delay > 0) try { Thread.sleep(delay); }
-    catch (InterruptedException ie) { /* do nothing */ }
+    this.cachePages = new int[CACHE_PAGES];
+    this.cacheLines = new String[CACHE_PAGES][];
+    this.file = null;             // no log file until GUI starts sorting
+    this.memory = new ArrayList();
+    this.output = null;
+    this.pageStarts = new long[64]; // grows as needed
+    this.reader = null;
+    this.widest = "";
+    clearLines();                 // no lines yet
   }
 
-} // end of SortFatFolder2 class
+/*
+  addLine() method
+
+  Write one line to the log file, or keep it in memory if there is no log file.
+  If the log file can't be written, then close it, and keep this and all later
+  lines in memory.  Lines already in the file can still be shown and saved.
+*/
+  void addLine(String line)
+  {
+    byte[] bytes;                 // line in default character set
+    long[] larger;                // more room for <pageStarts>
+    int page;                     // page number for this line
+
+    if (line.length() > widest.length()) // new longest line?
+      widest = line;
+    if (output != null)           // is there a log file?
+    {
+      try
+      {
+        bytes = (line + LINE_SEPARATOR).getBytes();
+        page = fileLines / PAGE_LINES;
+        if (page >= pageStarts.length) // no room for another page?
+        {
+          larger = new long[pageStarts.length * 2];
+          System.arraycopy(pageStarts, 0, larger, 0, pageStarts.length);
+          pageStarts = larger;
+        }
+        if ((fileLines % PAGE_LINES) == 0) // first line in a new page?
+          pageStarts[page] = fileSize;
+        output.write(bytes);
+        fileLines ++;
+        fileSize += bytes.length;
+        size ++;
+        return;
+      }
+      catch (IOException ioe) { closeOutput(ioe); } // keep line in memory
+    }
+    memory.add(line);
+    size ++;
+  }
+
+/*
+  addLines() method
+
+  Add lines to the end of the log.  Each line ends with a newline character,
+  except perhaps the last.  The list is told once about all new lines.
+*/
+  public void addLines(String text)
+  {
+    int end;                      // index of newline after current line
+    int first;                    // index of first new line in list
+    int i;                        // index variable
+    int start;                    // index of first character in current line
+
+    first = size;
+    for (i = 0; i < CACHE_PAGES; i ++) // last page in cache is now too short
+      if (cachePages[i] == (fileLines / PAGE_LINES))
+        cachePages[i] = -1;
+    for (start = 0; start < text.length(); start = end + 1)
+    {
+      end = text.indexOf('\n', start);
+      if (end < 0)                // no newline after last line?
+        end = text.length();
+      addLine(text.substring(start, end));
+    }
+    if (output != null)           // pages must be complete before reading
+    {
+      try { output.flush(); }
+      catch (IOException ioe) { closeOutput(ioe); }
+    }
+    if (size > first)             // did we add anything?
+      fireIntervalAdded(this, first, (size - 1));
+  }
+
+/*
+  clear() method
+
+  Remove all lines and delete the log file, if there is one.
+*/
+  public void clear()
+  {
+    int last;                     // index of last line in list
+
+    closeOutput(null);
+    if (reader != null)
+    {
+      try { reader.close(); }
+      catch (IOException ioe) { /* do nothing */ }
+      reader = null;
+    }
+    if ((file != null) && (file.delete() == false)) // old log gone?
+      file.deleteOnExit();        // no, try again later
+    file = null;
+    last = size - 1;
+    clearLines();
+    if (last >= 0)                // were there any lines?
+      fireIntervalRemoved(this, 0, last);
+  }
+
+/*
+  clearLines() method
+
+  Reset the line counts and the cache.  Doesn't tell the list.
+*/
+  void clearLines()
+  {
+    int i;                        // index variable
+
+    for (i = 0; i < CACHE_PAGES; i ++)
+    {
+      cachePages[i] = -1;         // nothing in cache
+      cacheLines[i] = null;
+    }
+    cacheNext = 0;
+    fileLines = 0;
+    fileSize = 0;
+    memory.clear();
+    size = 0;
+    widest = "";
+  }
+
+/*
+  close() method
+
+  Flush and close the log file for the current run, if there is one.  The file
+  stays until the next run or until this program ends, so that it can be shown
+  and saved.
+*/
+  public void close()
+  {
+    closeOutput(null);
+  }
+
+/*
+  closeOutput() method
+
+  Close the log file for writing.  If there was an error, then report it with
+  a line in memory, after the lines already in the file.  The list is told
+  about that line by the caller (addLines) or here (close).
+*/
+  void closeOutput(IOException error)
+  {
+    String message;               // error message, or <null> if none
+
+    if (output == null)           // already closed?
+      return;
+    message = (error == null) ? null : error.getMessage();
+    try { output.close(); }
+    catch (IOException ioe)
+    {
+      if (message == null) message = ioe.getMessage(); // first error only
+    }
+    output = null;
+    if (message != null)          // log file is incomplete or broken?
+    {
+      memory.add("Can't write log file, keeping output in memory: "
+        + message);
+      size ++;
+      if (error == null)          // not from addLines()
+        fireIntervalAdded(this, (size - 1), (size - 1));
+    }
+  }
+
+/*
+  getElementAt() method
+
+  Return one line for the list.  Lines from the log file are read one page at a
+  time into a small cache, since the list asks for all visible lines in order.
+*/
+  public Object getElementAt(int index)
+  {
+    int i;                        // index variable
+    int page;                     // page number for <index>
+
+    if ((index < 0) || (index >= size)) // not a line we have?
+      return("");
+    if (index >= fileLines)       // kept in memory?
+      return(memory.get(index - fileLines));
+    page = index / PAGE_LINES;
+    for (i = 0; i < CACHE_PAGES; i ++)
+      if (cachePages[i] == page)
+        return(cacheLines[i][index % PAGE_LINES]);
+    i = cacheNext;                // replace oldest page in cache
+    cacheNext = (cacheNext + 1) % CACHE_PAGES;
+    cacheLines[i] = readPage(page);
+    cachePages[i] = page;
+    return(cacheLines[i][index % PAGE_LINES]);
+  }
+
+/*
+  getSize() method
+
+  Return the number of lines for the list.
+*/
+  public int getSize()
+  {
+    return(size);
+  }
+
+/*
+  open() method
+
+  Remove all lines and start a new log file for a run, replacing the log from
+  the previous run.  If the log file can't be created, then lines are kept in
+  memory.
+*/
+  public void open() throws IOException
+  {
+    clear();                      // previous run should already be closed
+    file = File.createTempFile("SortFatFolder2", ".txt");
+    file.deleteOnExit();          // only needed while we run
+    output = new BufferedOutputStream(new FileOutputStream(file));
+  }
+
+/*
+  readPage() method
+
+  Read one page of lines from the log file.  The last page may be short.  Lines
+  that can't be read are empty; the error is already shown if the log file was
+  broken while being written.
+*/
+  String[] readPage(int page)
+  {
+    byte[] buffer;                // bytes for all lines in page
+    int count;                    // number of lines in page
+    int end;                      // index of line separator after a line
+    long limit;                   // byte offset after last line in page
+    String[] result;              // lines in page
+    int line;                     // index of line in page
+    int start;                    // index of first character in a line
+    String text;                  // page in default character set
+
+    count = Math.min(PAGE_LINES, (fileLines - (page * PAGE_LINES)));
+    result = new String[count];
+    Arrays.fill(result, "");
+    limit = (((page + 1) * PAGE_LINES) < fileLines) ? pageStarts[page + 1]
+      : fileSize;
+    try
+    {
+      if (reader == null)         // first time reading back this log file?
+        reader = new RandomAccessFile(file, "r");
+      buffer = new byte[(int) (limit - pageStarts[page])];
+      reader.seek(pageStarts[page]);
+      reader.readFully(buffer);
+      text = new String(buffer);
+      start = 0;
+      for (line = 0; line < count; line ++)
+      {
+        end = text.indexOf(LINE_SEPARATOR, start);
+        if (end < 0)              // no separator after last line?
+          end = text.length();
+        result[line] = text.substring(start, end);
+        start = Math.min(text.length(), (end + LINE_SEPARATOR.length()));
+      }
+    }
+    catch (IOException ioe) { /* show empty lines */ }
+    return(result);
+  }
+
+/*
+  save() method
+
+  Copy all lines to a text file chosen by the user: the log file, copied by the
+  system without going through our memory (FileChannel.transferTo), then any
+  lines kept in memory.  Files are closed even after an error.
+*/
+  public void save(File target) throws IOException
+  {
+    long done;                    // number of bytes copied from log file
+    FileChannel input;            // log file, when there is one
+    int i;                        // index variable
+    FileOutputStream saved;       // output file stream
+
+    saved = new FileOutputStream(target);
+    try
+    {
+      if (fileLines > 0)          // anything in log file?
+      {
+        if (output != null)       // still sorting?
+          output.flush();         // addLines() should have done this
+        input = new FileInputStream(file).getChannel();
+        try
+        {
+          for (done = 0; done < fileSize; ) // may copy less than asked
+            done += input.transferTo(done, (fileSize - done),
+              saved.getChannel());
+        }
+        finally { input.close(); }
+      }
+      for (i = 0; i < memory.size(); i ++) // lines not in log file
+        saved.write(((String) memory.get(i) + LINE_SEPARATOR).getBytes());
+    }
+    finally { saved.close(); }
+  }
+
+} // end of SortFatFolder2Log class
 
 // ------------------------------------------------------------------------- //
 
 /*
   SortFatFolder2User class
 
-  This class listens to input from the user and passes back event parameters to
-  a static method in the main class.
+  This class listens to input from the user and to output from the sorting
+  engine, and passes back event parameters to a static method in the main
+  class.
 */
 
-class SortFatFolder2User implements ActionListener, Runnable
+class SortFatFolder2User implements ActionListener, Runnable,
+  SortFatFolder2Listener
 {
   /* empty constructor */
 
@@ -1223,6 +1318,23 @@ class SortFatFolder2User implements ActionListener, Runnable
     SortFatFolder2.doOpenRunner();
   }
 
+  /* output, status, and progress from the sorting engine */
+
+  public void putOutput(String text)
+  {
+    SortFatFolder2.putOutput(text);
+  }
+
+  public void setStatusMessage(String text)
+  {
+    SortFatFolder2.setStatusMessage(text);
+  }
+
+  public void showProgress(long done, long total, double rate)
+  {
+    SortFatFolder2.showProgress(done, total, rate);
+  }
+
 } // end of SortFatFolder2User class
 
 /* Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL. */
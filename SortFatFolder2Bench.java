@@ -0,0 +1,570 @@
+/*
+  Sort FAT Folder #2 Benchmark - Timing for Sorting and Moving Hot Paths
+  Java class name: SortFatFolder2Bench
+  Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL.
+
+  This is a Java 1.4 console application that measures the parts of the
+  SortFatFolder2 program where most of the time goes, so that a change can be
+  shown to help or hurt before it is released:
+
+   1. sorting names in memory, for 10 to 65,535 entries, for each order of
+      subfolders versus files, with and without strict case, using names with
+      mixed scripts (Latin, Greek, Cyrillic, Chinese) and digits;
+
+   2. listing a real folder, sorting the list (which asks if each entry is a
+      subfolder), and reading the date and time stamp for each entry; and
+
+   3. moving a synthetic tree of folders and files with moveFiles(), both as
+      new folders and with subfolders moved as a unit.
+
+  Tests 2 and 3 create their files and folders in a new folder inside the
+  folder given on the command line, or the system's temporary folder.  Use a
+  RAM disk (tmpfs, such as /dev/shm on Linux) to measure the program and not
+  the disk, a FAT volume to measure the real thing, or the -fat option for the
+  in-memory FAT model in SortFatFolder2Memory.  Everything created is deleted
+  at the end.  Delays for a slow file system start at zero, and are only used
+  after an operation fails, so the number of retries is reported with each
+  result; results with retries are measuring the file system.
+
+  Each benchmark is run a few times to warm up, and then for a number of timed
+  iterations.  Each iteration repeats the operation until at least 200 ms have
+  passed, because Java 1.4 only has a clock in milliseconds.  Results are
+  printed and also written as a JSON file, in the same layout as the Java
+  Microbenchmark Harness (JMH), so that runs can be compared by tools that
+  already read JMH results.  Compile with the main program and engine:
+
+      javac  SortFatFolder2*.java
+      java  SortFatFolder2Bench  -o results.json  /dev/shm
+
+  Apache License or GNU General Public License
+  --------------------------------------------
+  SortFatFolder2Bench is free software and has been released under the terms
+  and conditions of the Apache License (version 2.0 or later) and/or the GNU
+  General Public License (GPL, version 2 or later).  This program is
+  distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the license(s) for more details.  You should have
+  received a copy of the licenses along with this program.  If not, see the
+  http://www.apache.org/licenses/ and http://www.gnu.org/licenses/ web pages.
+*/
+
+import java.io.*;                 // standard I/O
+import java.text.*;               // number formatting
+import java.util.*;               // calendars, dates, lists, maps, vectors
+
+public class SortFatFolder2Bench
+{
+  /* constants */
+
+  static final String[] CASE_NAMES = {"ignore", "strict", "natural",
+    "collator"};                  // names for -c0 to -c3 options in results
+  static final int[] LIST_SIZES = {10, 100, 1000, 10000};
+                                  // entries in folders for listing tests
+  static final int MIN_TIME = 200; // shortest iteration in milliseconds
+  static final int[] MOVE_SHAPES = {10, 100, 40, 1000};
+                                  // pairs of (subfolders, files per folder)
+  static final String[] ORDER_NAMES = {"subfirst", "sublast", "submixed"};
+                                  // names for ORDER_* constants in results
+  static final int[] SCRIPT_RANGES = {0x0030, 0x0039, 0x0041, 0x005A, 0x0061,
+    0x007A, 0x00C0, 0x00D6, 0x00E0, 0x00F6, 0x0391, 0x03A9, 0x03B1, 0x03C9,
+    0x0410, 0x044F, 0x4E00, 0x4FFF};
+                                  // pairs of (first, last) name characters
+  static final long SEED = 20170912L; // same random names for every run
+  static final int[] SORT_SIZES = {10, 100, 1000, 10000, 65535};
+                                  // number of names for sorting tests
+  static final String[] STRATEGY_NAMES = {"auto", "inplace", "rename"};
+                                  // names for STRATEGY_* in results
+
+  /* class variables */
+
+  static File baseFolder;         // our folder for listing and moving tests
+  static String benchFilter;      // run only benchmarks starting with this
+  static PrintStream console;     // standard output, for our results
+  static SortFatFolder2Engine engine; // sorts folders, keeps totals
+  static NumberFormat formatScore; // formats scores with enough digits
+  static int iterations;          // number of timed iterations
+  static boolean jsonFirst;       // true until first result is written
+  static Writer jsonWriter;       // JSON output for all results
+  static PrintStream quiet;       // discards output from engine
+  static int warmups;             // number of warm-up iterations
+
+/*
+  main() method
+
+  Parse the command line, then run each benchmark.
+*/
+  public static void main(String[] args)
+  {
+    int i;                        // index variable
+    File jsonFile;                // where results are written
+    File parent;                  // folder given by user, or temporary folder
+    String word;                  // one parameter from command line
+
+    benchFilter = "";             // by default, run all benchmarks
+    console = System.out;         // our results go on standard output
+    formatScore = NumberFormat.getInstance(Locale.US); // plain for JSON
+    formatScore.setGroupingUsed(false);
+    formatScore.setMaximumFractionDigits(6);
+    iterations = 5;               // default number of timed iterations
+    jsonFile = new File("SortFatFolder2Bench.json");
+    parent = new File(System.getProperty("java.io.tmpdir"));
+    quiet = new PrintStream(new OutputStream() {
+      public void write(int b) { /* do nothing */ } });
+    warmups = 2;                  // default number of warm-up iterations
+
+    for (i = 0; i < args.length; i ++)
+    {
+      word = args[i];
+      if (word.startsWith("-b") && (word.length() > 2))
+        benchFilter = word.substring(2); // prefix of benchmark names
+      else if (word.equals("-fat"))
+        parent = (new SortFatFolder2Memory((File.separator + "fat"), 0))
+          .getRoot();             // in-memory FAT model, not on disk
+      else if (word.startsWith("-i") && (word.length() > 2))
+        iterations = Math.max(1, Integer.parseInt(word.substring(2)));
+      else if (word.equals("-o") && ((i + 1) < args.length))
+        jsonFile = new File(args[++ i]);
+      else if (word.startsWith("-w") && (word.length() > 2))
+        warmups = Math.max(0, Integer.parseInt(word.substring(2)));
+      else if (word.startsWith("-"))
+      {
+        System.err.println("Usage: java SortFatFolder2Bench [-bName] [-fat]"
+          + " [-i#] [-o file.json] [-w#] [folderName]");
+        System.exit(-1);
+      }
+      else
+        parent = new File(word);  // where test folders are created
+    }
+
+    /* One sorting engine is used for all benchmarks, with the same options as
+    the main program, except that no journal is written.  Benchmarks change the
+    engine's sorting order and strategy directly. */
+
+    engine = new SortFatFolder2Engine(new SortFatFolder2Options.Builder()
+      .setJournalMode(SortFatFolder2Engine.JOURNAL_OFF).build(), null,
+      new SortFatFolder2Cancel());
+
+    baseFolder = SortFatFolder2Engine.childFile(parent, ("Bench"
+      + System.currentTimeMillis()));
+    if (baseFolder.mkdir() == false)
+    {
+      System.err.println("Can't create folder: " + baseFolder.getPath());
+      System.exit(-1);
+    }
+    engine.stagingFolder = null;  // created when sorting in place
+    engine.stagingParent = baseFolder;
+    try
+    {
+      jsonWriter = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(jsonFile), "UTF-8"));
+      jsonWriter.write("[");
+      jsonFirst = true;
+      benchSorting();             // names in memory
+      benchListing();             // real folders, no changes
+      benchMoving();              // real folders and files are moved
+      jsonWriter.write("\n]\n");
+      jsonWriter.close();
+      console.println("Results written to: " + jsonFile.getPath());
+    }
+    catch (IOException ioe)
+    {
+      System.err.println("Can't write results " + jsonFile.getPath() + ": "
+        + ioe.getMessage());
+    }
+    finally
+    {
+      deleteTree(baseFolder);     // remove everything we created
+    }
+  } // end of main() method
+
+
+/*
+  benchListing() method
+
+  Time how long it takes to list a folder, to sort the list (which asks the
+  file system if each entry is a subfolder), and to get the date and time
+  stamp for each entry.  About one entry in ten is a subfolder.
+*/
+  static void benchListing() throws IOException
+  {
+    int i;                        // index variable
+
+    if (("list".startsWith(benchFilter) || benchFilter.startsWith("list"))
+      == false)
+    {
+      return;                     // user doesn't want these benchmarks
+    }
+    engine.setSortOrder(SortFatFolder2Engine.ORDER_SUBFIRST);
+    engine.caseFlag = false;
+    for (i = 0; i < LIST_SIZES.length; i ++)
+      benchListingSize(LIST_SIZES[i]);
+  }
+
+
+/*
+  benchListingSize() method
+
+  Run the listing benchmarks for one folder size.
+*/
+  static void benchListingSize(int size) throws IOException
+  {
+    final File[] entries;         // contents of <folder>
+    final File folder;            // folder with test entries
+    String params;                // parameters for JSON output
+
+    folder = SortFatFolder2Engine.childFile(baseFolder, ("list" + size));
+    makeFolder(folder, makeNames(size, new Random(SEED)));
+    entries = engine.listFolder(folder);
+    params = "\"entries\": \"" + size + "\"";
+    measure("listFolder", params, new Runnable() { public void run() {
+      engine.listFolder(folder); } });
+    measure("listSortFileList", params, new Runnable() { public void run() {
+      engine.sortFileList(engine.listFolder(folder)); } });
+    measure("listLastModified", params, new Runnable() { public void run() {
+      for (int i = 0; i < entries.length; i ++) entries[i].lastModified(); } });
+    deleteTree(folder);
+  }
+
+
+/*
+  benchMoving() method
+
+  Time moveFiles() from one folder to another and back again, for a synthetic
+  tree of subfolders with files, each in random order.  All subfolders are
+  recreated with the "rename" strategy, while the "inplace" strategy moves
+  subfolders as a unit and then sorts them in place.
+*/
+  static void benchMoving() throws IOException
+  {
+    int i;                        // index variable
+    int s;                        // index for strategies
+
+    if (("move".startsWith(benchFilter) || benchFilter.startsWith("move"))
+      == false)
+    {
+      return;                     // user doesn't want these benchmarks
+    }
+    engine.setSortOrder(SortFatFolder2Engine.ORDER_SUBFIRST);
+    engine.caseFlag = false;
+    for (i = 0; i < MOVE_SHAPES.length; i += 2)
+    {
+      for (s = SortFatFolder2Engine.STRATEGY_INPLACE; s
+        <= SortFatFolder2Engine.STRATEGY_RENAME; s ++)
+      {
+        benchMovingTree(MOVE_SHAPES[i], MOVE_SHAPES[i + 1], s);
+      }
+    }
+  }
+
+
+/*
+  benchMovingTree() method
+
+  Run the moving benchmark for one shape of tree and one strategy.
+*/
+  static void benchMovingTree(int subfolders, int files, int strategy)
+    throws IOException
+  {
+    final File[] folders;         // two folders that trade the tree
+    String params;                // parameters for JSON output
+    int retries;                  // retries before this benchmark
+    final int[] turn;             // which folder has the tree now
+
+    folders = new File[] {
+      SortFatFolder2Engine.childFile(baseFolder, "moveA"),
+      SortFatFolder2Engine.childFile(baseFolder, "moveB")};
+    makeTree(folders[0], subfolders, files);
+    if (folders[1].mkdir() == false)
+      throw new IOException("can't create " + folders[1].getPath());
+    engine.strategyIndex = strategy;
+    turn = new int[1];
+    retries = countRetries();
+    params = "\"folders\": \"" + subfolders + "\", \"files\": \"" + files
+      + "\", \"strategy\": \"" + STRATEGY_NAMES[strategy] + "\"";
+    System.setOut(quiet);         // engine reports each folder
+    try
+    {
+      measure("moveFiles", params, new Runnable() { public void run() {
+        engine.moveFiles(folders[turn[0]], folders[1 - turn[0]]);
+        turn[0] = 1 - turn[0]; } });
+    }
+    finally
+    {
+      System.setOut(console);
+    }
+    if (engine.cancel.isCancelled()) // did the engine give up?
+      throw new IOException("moveFiles() failed, see folder "
+        + baseFolder.getPath());
+    if (countRetries() > retries)
+    {
+      console.println("  (file system needed " + (countRetries() - retries)
+        + " retries)");
+    }
+    engine.removeStagingFolder(); // if sorting in place
+    deleteTree(folders[0]);
+    deleteTree(folders[1]);
+  }
+
+
+/*
+  benchSorting() method
+
+  Time how long it takes to sort names in memory, which is done once for each
+  folder and is most of the time in sortFileList() that isn't a file system
+  call.
+*/
+  static void benchSorting() throws IOException
+  {
+    int i;                        // index variable
+
+    if (("sort".startsWith(benchFilter) || benchFilter.startsWith("sort"))
+      == false)
+    {
+      return;                     // user doesn't want these benchmarks
+    }
+    for (i = 0; i < SORT_SIZES.length; i ++)
+      benchSortingSize(SORT_SIZES[i]);
+  }
+
+
+/*
+  benchSortingSize() method
+
+  Run the sorting benchmarks for one number of names, for each sort order and
+  way of comparing names (case flag, natural order, or collator).
+*/
+  static void benchSortingSize(final int size) throws IOException
+  {
+    int c;                        // index for case flags
+    final boolean[] folders;      // which names are subfolders
+    final String[] names;         // names to be sorted
+    int o;                        // index for sort orders
+    Random random;                // for names and subfolder flags
+
+    random = new Random(SEED);
+    names = makeNames(size, random);
+    folders = new boolean[size];
+    for (c = 0; c < size; c ++)
+      folders[c] = random.nextInt(10) == 0; // about one in ten
+    for (o = 0; o < ORDER_NAMES.length; o ++)
+    {
+      engine.setSortOrder(o);
+      for (c = 0; c < CASE_NAMES.length; c ++)
+      {
+        engine.caseFlag = (c == 1);
+        engine.setCollation(((c == 2) ? SortFatFolder2Engine.COLLATE_NATURAL
+          : ((c == 3) ? SortFatFolder2Engine.COLLATE_LOCALE
+          : SortFatFolder2Engine.COLLATE_NAME)), null, Collator.TERTIARY);
+        measure("sortNameOrder", ("\"entries\": \"" + size
+          + "\", \"order\": \"" + ORDER_NAMES[o] + "\", \"case\": \""
+          + CASE_NAMES[c] + "\""), new Runnable() { public void run() {
+          engine.sortNameOrder(names, folders, null, size); } });
+      }
+    }
+    engine.setCollation(SortFatFolder2Engine.COLLATE_NAME, null,
+      Collator.TERTIARY);         // other benchmarks compare by character
+  }
+
+
+/*
+  countRetries() method
+
+  Return the total number of retries by the engine for a slow file system.
+*/
+  static int countRetries()
+  {
+    int i;                        // index variable
+    int result;                   // our result
+
+    result = 0;
+    for (i = 0; i < engine.settleRetries.length; i ++)
+      result += engine.settleRetries[i];
+    return(result);
+  }
+
+
+/*
+  deleteTree() method
+
+  Delete a folder and everything in it, ignoring errors.
+*/
+  static void deleteTree(File folder)
+  {
+    File[] contents;              // contents of <folder>
+    int i;                        // index variable
+
+    contents = folder.listFiles();
+    for (i = 0; (contents != null) && (i < contents.length); i ++)
+    {
+      if (contents[i].isDirectory())
+        deleteTree(contents[i]);
+      else
+        contents[i].delete();
+    }
+    folder.delete();
+  }
+
+
+/*
+  makeFolder() method
+
+  Create a folder with the given names, where about one name in ten is a
+  subfolder and the rest are empty files.
+*/
+  static void makeFolder(File folder, String[] names) throws IOException
+  {
+    File entry;                   // one entry in <folder>
+    int i;                        // index variable
+
+    if (folder.mkdir() == false)
+      throw new IOException("can't create " + folder.getPath());
+    for (i = 0; i < names.length; i ++)
+    {
+      entry = SortFatFolder2Engine.childFile(folder, names[i]);
+      if ((i % 10) == 0)          // every tenth entry is a subfolder
+      {
+        if (entry.mkdir() == false)
+          throw new IOException("can't create " + entry.getPath());
+      }
+      else if (entry.createNewFile() == false) // empty file
+        throw new IOException("can't create " + entry.getPath());
+    }
+  }
+
+
+/*
+  makeNames() method
+
+  Return a list of unique file names in random order, with characters from
+  several scripts, so that sorting has to do real work comparing names.
+*/
+  static String[] makeNames(int count, Random random)
+  {
+    StringBuffer buffer;          // faster than String for multiple appends
+    int i, k;                     // index variables
+    int length;                   // number of random characters
+    int range;                    // index into SCRIPT_RANGES
+    String[] result;              // our result
+
+    buffer = new StringBuffer();
+    result = new String[count];
+    for (i = 0; i < count; i ++)
+    {
+      buffer.setLength(0);
+      length = 3 + random.nextInt(14);
+      for (k = 0; k < length; k ++)
+      {
+        range = 2 * random.nextInt(SCRIPT_RANGES.length / 2);
+        buffer.append((char) (SCRIPT_RANGES[range] + random.nextInt(
+          SCRIPT_RANGES[range + 1] - SCRIPT_RANGES[range] + 1)));
+      }
+      buffer.append(" ");         // make names unique without sorting them
+      buffer.append(i);
+      buffer.append(((i % 3) == 0) ? ".jpg" : ".txt");
+      result[i] = buffer.toString();
+    }
+    return(result);
+  }
+
+
+/*
+  makeTree() method
+
+  Create a folder with subfolders that each have files in random order, plus
+  one nested subfolder so that moveFiles() also recurses.
+*/
+  static void makeTree(File folder, int subfolders, int files)
+    throws IOException
+  {
+    int i;                        // index variable
+    String[] names;               // names of subfolders
+    Random random;                // for names
+
+    random = new Random(SEED);
+    if (folder.mkdir() == false)
+      throw new IOException("can't create " + folder.getPath());
+    names = makeNames(subfolders, random);
+    for (i = 0; i < subfolders; i ++)
+    {
+      makeFolder(SortFatFolder2Engine.childFile(folder, names[i]),
+        makeNames(files, random));
+      makeFolder(SortFatFolder2Engine.childFile(SortFatFolder2Engine.childFile(
+        folder, names[i]), "nested"), makeNames(10, random));
+    }
+  }
+
+
+/*
+  measure() method
+
+  Run one benchmark for the warm-up and timed iterations, then print the
+  average time per operation and add the result to the JSON file.
+*/
+  static void measure(
+    String name,                  // benchmark name
+    String params,                // parameters as JSON object members
+    Runnable task)                // one operation to be timed
+    throws IOException
+  {
+    int i;                        // index variable
+    double max, min, sum;         // statistics for timed iterations
+    double[] scores;              // milliseconds per operation
+
+    for (i = 0; i < warmups; i ++)
+      runIteration(task);
+    scores = new double[iterations];
+    max = sum = 0.0;
+    min = Double.MAX_VALUE;
+    for (i = 0; i < iterations; i ++)
+    {
+      scores[i] = runIteration(task);
+      max = Math.max(max, scores[i]);
+      min = Math.min(min, scores[i]);
+      sum += scores[i];
+    }
+
+    console.println(name + " {" + params + "}: " + formatScore.format(sum
+      / iterations) + " ms/op (min " + formatScore.format(min) + ", max "
+      + formatScore.format(max) + ")");
+    jsonWriter.write(jsonFirst ? "\n" : ",\n");
+    jsonFirst = false;
+    jsonWriter.write("  {\"benchmark\": \"SortFatFolder2." + name
+      + "\", \"mode\": \"avgt\", \"warmupIterations\": " + warmups
+      + ", \"measurementIterations\": " + iterations + ",\n");
+    jsonWriter.write("    \"params\": {" + params + "},\n");
+    jsonWriter.write("    \"primaryMetric\": {\"score\": "
+      + formatScore.format(sum / iterations) + ", \"scoreUnit\": \"ms/op\", "
+      + "\"scoreConfidence\": [" + formatScore.format(min) + ", "
+      + formatScore.format(max) + "], \"rawData\": [[");
+    for (i = 0; i < iterations; i ++)
+      jsonWriter.write(((i > 0) ? ", " : "") + formatScore.format(scores[i]));
+    jsonWriter.write("]]}}");
+  }
+
+
+/*
+  runIteration() method
+
+  Repeat an operation until at least MIN_TIME milliseconds have passed, and
+  return the average time for one operation in milliseconds.
+*/
+  static double runIteration(Runnable task)
+  {
+    long count;                   // number of operations
+    long elapsed;                 // milliseconds so far
+    long start;                   // starting time in milliseconds
+
+    count = 0;
+    start = System.currentTimeMillis();
+    do
+    {
+      task.run();
+      count ++;
+      elapsed = System.currentTimeMillis() - start;
+    } while (elapsed < MIN_TIME);
+    return(((double) elapsed) / count);
+  }
+
+} // end of SortFatFolder2Bench class
+
+/* Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL. */
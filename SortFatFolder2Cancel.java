@@ -0,0 +1,44 @@
+/*
+  Sort FAT Folder #2 Cancel - Signal to Stop Sorting Engines
+  Java class name: SortFatFolder2Cancel
+  Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL.
+
+  A cancellation token for one or more engines.  Any thread may cancel, such as
+  a "Cancel" button, and engines check between file system calls.  An engine
+  also cancels its token after a fatal error.  Once cancelled, a token stays
+  cancelled; create a new token for the next run.
+
+  Apache License or GNU General Public License
+  --------------------------------------------
+  SortFatFolder2Cancel is free software and has been released under the terms
+  and conditions of the Apache License (version 2.0 or later) and/or the GNU
+  General Public License (GPL, version 2 or later).  This program is
+  distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the license(s) for more details.  You should have
+  received a copy of the licenses along with this program.  If not, see the
+  http://www.apache.org/licenses/ and http://www.gnu.org/licenses/ web pages.
+*/
+
+public class SortFatFolder2Cancel
+{
+  volatile boolean cancelFlag;    // our signal from user to stop processing
+
+  public SortFatFolder2Cancel()
+  {
+    cancelFlag = false;           // nothing cancelled yet
+  }
+
+  public void cancel()
+  {
+    cancelFlag = true;            // stop at next safe point
+  }
+
+  public boolean isCancelled()
+  {
+    return(cancelFlag);
+  }
+
+} // end of SortFatFolder2Cancel class
+
+/* Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL. */
@@ -0,0 +1,4847 @@
+/*
+  Sort FAT Folder #2 Engine - Sorting Engine Without a User Interface
+  Java class name: SortFatFolder2Engine
+  Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL.
+
+  This is the Java 1.4 engine that sorts FAT16 and FAT32 folders for the
+  SortFatFolder2 application.  It has no graphical interface and no static
+  variables that change, so other programs can create engines and run them.
+  Independent engines may run at the same time on separate threads, as long
+  as each engine is used by only one thread at a time.  An engine is created
+  with:
+
+   1. An options object (SortFatFolder2Options) that can't be changed after it
+      is created, made with SortFatFolder2Options.Builder.  The options may be
+      replaced between folders.
+
+   2. A listener (SortFatFolder2Listener) that receives each line of output,
+      the current file or folder, and progress counts.  With a <null> listener,
+      output goes onto standard output and the rest is ignored.
+
+   3. A cancellation token (SortFatFolder2Cancel), which may be shared by any
+      number of engines.  Cancelling the token stops each engine at the next
+      safe point, and a fatal error in an engine also cancels its token.
+
+  Then call processFileOrFolder() or processFatVolume() once for each folder or
+  volume, and printSummary() at the end:
+
+      SortFatFolder2Engine engine = new SortFatFolder2Engine(options,
+        listener, cancel);
+      engine.processFileOrFolder(new File("E:\\music"));
+      engine.printSummary();
+
+  The totals (totalMoved, totalSorted, and so on) are kept until the engine is
+  discarded or resetTotals() is called.  See SortFatFolder2 for the options and
+  for an explanation of how folders are sorted.
+
+  Apache License or GNU General Public License
+  --------------------------------------------
+  SortFatFolder2Engine is free software and has been released under the terms
+  and conditions of the Apache License (version 2.0 or later) and/or the GNU
+  General Public License (GPL, version 2 or later).  This program is
+  distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the license(s) for more details.  You should have
+  received a copy of the licenses along with this program.  If not, see the
+  http://www.apache.org/licenses/ and http://www.gnu.org/licenses/ web pages.
+*/
+
+import java.io.*;                 // standard I/O
+import java.nio.*;                // byte buffers for raw volumes, copies
+import java.nio.channels.*;       // file channels for raw volumes, copies
+import java.text.*;               // collation, number formatting
+import java.util.*;               // calendars, dates, lists, maps, vectors
+import java.util.regex.*;         // regular expressions
+import java.util.zip.*;           // CRC32 checksums for copied files
+
+public class SortFatFolder2Engine
+{
+  /* constants */
+
+  static final int COLLATE_LOCALE = 2; // names by java.text.Collator
+  static final int COLLATE_NAME = 0; // names by character, see <caseFlag>
+  static final int COLLATE_NATURAL = 1; // numbers in names by numeric value
+  static final int COPY_BUFFER = 0x400000; // bytes per read or transfer (4 MB)
+  static final int COPY_TRIES = 100; // names to try for local copy folder
+  static final int JOURNAL_BATCH = 50; // journal lines between flushes
+  static final String JOURNAL_HEADER = "SortFatFolder2 journal";
+                                  // first line of every journal file
+  static final Pattern JOURNAL_NAME = Pattern.compile("Journal[0-9]+\\.txt");
+                                  // name of journal files in parent folder
+  static final int JOURNAL_OFF = 0; // don't write a journal
+  static final int JOURNAL_ON = 1; // write a journal, delete if successful
+  static final int JOURNAL_RESUME = 2; // finish an interrupted sort
+  static final int JOURNAL_ROLLBACK = 3; // undo an interrupted sort
+  static final String MANIFEST_HEADER = "SortFatFolder2 manifest";
+                                  // first line of every manifest file
+  static final String MANIFEST_SUFFIX = ".manifest.txt";
+                                  // added to given folder name for manifest
+  static final int METRIC_BUCKETS = 22; // histogram: <1 ms, then powers of 2
+  static final int METRIC_COPY = 7; // index for copy file out or back
+  static final int METRIC_LIST = 4; // index for list folder contents
+  static final String[] METRIC_NAMES = {"create", "delete", "move", "rename",
+    "list", "stamp", "read", "copy"}; // calls by SETTLE_*, METRIC_* index
+  static final int METRIC_READ = 6; // index for read subfolder flag or stamp
+  static final int METRIC_STAMP = 5; // index for set date and time stamp
+  static final int ORDER_SUBFIRST = 0; // put all subfolders before files
+  static final int ORDER_SUBLAST = 1; // put subfolders after all files
+  static final int ORDER_SUBMIXED = 2; // mix files and subfolders by name
+  static final int ORDER_TRACKS = 3; // subfolders first, files by track number
+  static final String[] PLAN_NAMES = {"create", "delete", "move", "rename",
+    "stamp", "write"};            // operation names in dry-run plan
+  static final int PLAN_STAMP = 4; // index for set date and time stamp
+  static final int PLAN_WRITE = 5; // index for rewrite raw FAT directory
+  static final int PROBE_ROUNDS = 10; // times each operation is timed
+  static final double PROGRESS_DECAY = 0.7; // weight of old rate in average
+  static final int PROGRESS_UPDATE = 1000; // ms between rate measurements
+  static final int SETTLE_CREATE = 0; // index for create folder delays
+  static final int SETTLE_DELETE = 1; // index for delete folder delays
+  static final int SETTLE_MAX = 3200; // longest delay in ms before retrying
+  static final int SETTLE_MOVE = 2; // index for move file, subfolder delays
+  static final String[] SETTLE_NAMES = {"create", "delete", "move", "rename"};
+                                  // operation names for summary
+  static final int SETTLE_RENAME = 3; // index for replace main folder delays
+  static final int SETTLE_RETRIES = 6; // retries before an operation fails
+  static final int SETTLE_STREAK = 50; // successes before shorter delays
+  static final int STRATEGY_AUTO = 0; // choose by estimated number of moves
+  static final int STRATEGY_COPY = 3; // sort in place, copying files locally
+  static final int STRATEGY_INPLACE = 1; // sort folders in place when possible
+  static final int STRATEGY_RENAME = 2; // new folder replaces user's folder
+  static final String TAG_HEADER = "SortFatFolder2 tags";
+                                  // first line of every tag cache file
+  static final Pattern TAG_NAME = Pattern.compile(
+    ".*\\.(aac|flac|m4a|m4b|mp3|mp4|oga|ogg|opus)", Pattern.CASE_INSENSITIVE);
+                                  // files that may have disc, track numbers
+  static final int TAG_NONE = 0x1000000; // sort key for files without tags
+  static final int TAG_THREADS = 4; // threads reading tags for one folder
+  static final int TRACE_BATCH = 50; // trace lines between flushes
+  static final String[] TRACE_NAMES = {"SubfolderCreate", "SubfolderDelete",
+    "EntryMove", "FolderRename"}; // event names by SETTLE_* index
+  static final int WAIT_CREATE = 20; // first retry delay for create subfolder
+  static final int WAIT_DELETE = 50; // first retry delay for delete subfolder
+  static final int WAIT_MOVE = 10; // first retry delay for move file, subfolder
+  static final int WAIT_RENAME = 200; // first retry delay for main folder
+  static final int[] WAIT_FIRST = {WAIT_CREATE, WAIT_DELETE, WAIT_MOVE,
+    WAIT_RENAME};                 // first retry delays by SETTLE_* index
+
+  /* instance variables */
+
+  SortFatFolder2Cancel cancel;    // our signal to stop processing
+  boolean caseFlag;               // true if upper/lower case names different
+  Locale collateLocale;           // locale for COLLATE_LOCALE
+  int collateMode;                // COLLATE_* constant for comparing names
+  int collateStrength;            // Collator strength for COLLATE_LOCALE
+  Collator collator;              // for COLLATE_LOCALE, or <null>
+  File copyFolder;                // parent of local copies, or <null> for temp
+  File copyLocal;                 // local folder for copied files, or <null>
+  NumberFormat formatComma;       // formats with commas (digit grouping)
+  int journalCount;               // journal lines written since last flush
+  File journalFile;               // write-ahead journal, or <null> if none
+  int journalMode;                // JOURNAL_* constant for journal, recovery
+  FileOutputStream journalStream; // journal file, for syncing to disk
+  Writer journalWriter;           // buffered text output to <journalStream>
+  SortFatFolder2Listener listener; // output, status, progress, or <null>
+  File manifestBase;              // where manifest paths start while sorting
+  boolean manifestFlag;           // true if we keep a manifest of sorted folders
+  HashMap manifestNew;            // folders sorted in this run, or <null>
+  HashMap manifestOld;            // folders from manifest of last run, or <null>
+  File manifestRoot;              // folder that manifest paths start from
+  long[][] metricBuckets;         // histogram of call times by METRIC_NAMES
+  long[] metricCounts;            // number of calls by METRIC_NAMES index
+  File metricFile;                // CSV file for timing, or <null>
+  boolean metricFlag;             // true if we print timing after summary
+  long[] metricMax;               // longest call in ms by METRIC_NAMES index
+  long metricStart;               // time when sorting started, in ms
+  long[] metricTotals;            // total ms by METRIC_NAMES index
+  long metricWaitCount;           // number of waits for slow file system
+  long metricWaitTotal;           // total ms waiting for slow file system
+  HashMap planAliases;            // dry run: moved folders and real locations
+  long[] planCounts;              // dry run: operations by PLAN_NAMES index
+  File planFile;                  // dry run: plan file, or <null> for temp
+  boolean planFlag;               // true for dry run, nothing is changed
+  double[] planLatency;           // dry run: measured ms by PLAN_NAMES index
+  File planOutput;                // dry run: plan file being written
+  Writer planWriter;              // dry run: buffered output to <planOutput>
+  boolean probeFlag;              // dry run: time a probe next to given folder
+  long progressDone;              // entries done in current given folder
+  boolean progressFlag;           // true if we count entries before sorting
+  long progressLast;              // time of last rate measurement, in ms
+  long progressLastDone;          // <progressDone> at last measurement
+  double progressRate;            // moving average of entries per second
+  long progressTotal;             // entries counted in given folder, or zero
+  boolean recurseFlag;            // true if we search folders and subfolders
+  boolean resumeFlag;             // true while finishing an interrupted sort
+  int[] settleDelay;              // current delay in ms by SETTLE_* index
+  int[] settleRetries;            // number of retries by SETTLE_* index
+  int[] settleStreak;             // successes since delay changed, by index
+  int sortGroupFile;              // sorting group for files
+  int sortGroupFolder;            // sorting group for subfolders
+  int sortOrderIndex;             // sorting order for subfolders, files
+  SortFatFolder2Spec sortSpec;    // keys from -k(spec) option, or <null>
+  File stagingFolder;             // where entries wait while sorting in place
+  File stagingParent;             // parent folder for <stagingFolder>
+  boolean stampFlag;              // true if manifest skips folders by stamp
+  int strategyIndex;              // how folders are sorted: in place or new
+  HashMap tagCache;               // path to size, stamp, key, or <null>
+  boolean tagChanged;             // true if <tagCache> needs to be saved
+  File tagFile;                   // cache of disc, track numbers, or <null>
+  long totalAlready;              // total number of folders already sorted
+  long totalMoved;                // total number of files, subfolders moved
+  long totalSorted;               // total number of subfolders (re)sorted
+  long totalUnchanged;            // folders skipped by manifest, not listed
+  int traceCount;                 // trace lines written since last flush
+  File traceFile;                 // event trace file, or <null> if none
+  Writer traceWriter;             // buffered text output to <traceFile>
+  boolean volumeFlag;             // true if names are raw FAT volumes, images
+
+/*
+  SortFatFolder2Engine() constructor
+
+  Create an engine with the user's options, a listener for output (or <null>),
+  and a cancellation token that may be shared with other engines.
+*/
+  public SortFatFolder2Engine(
+    SortFatFolder2Options options, // user's options, can't be changed
+    SortFatFolder2Listener listener, // output, status, progress, or <null>
+    SortFatFolder2Cancel cancel)  // our signal to stop processing
+  {
+    this.cancel = cancel;
+    this.formatComma = NumberFormat.getInstance(); // current locale
+    this.formatComma.setGroupingUsed(true); // use commas or digit groups
+    this.listener = listener;
+    resetTotals();                // nothing found or changed yet
+    setOptions(options);
+  }
+
+
+/*
+  checksumFile() method
+
+  Read a file from beginning to end and return its CRC32 checksum, or -1 if the
+  file can't be read.  This method is static, so that the checksum thread for
+  copied files can call it.
+*/
+  static long checksumFile(File given)
+  {
+    ByteBuffer buffer;            // bytes read from <given>
+    FileChannel channel;          // input from <given>
+    CRC32 checksum;               // checksum of bytes read so far
+
+    try
+    {
+      channel = new FileInputStream(given).getChannel();
+      try
+      {
+        buffer = ByteBuffer.allocate(COPY_BUFFER);
+        checksum = new CRC32();
+        while (channel.read(buffer) >= 0)
+        {
+          checksum.update(buffer.array(), 0, buffer.position());
+          buffer.clear();         // reuse buffer for next read
+        }
+        return(checksum.getValue());
+      }
+      finally
+      {
+        channel.close();
+      }
+    }
+    catch (IOException ioe)
+    {
+      return(-1);                 // caller decides if this is an error
+    }
+  }
+
+
+/*
+  childFile() method
+
+  Return a File object for an entry in a folder.  This is the same as the File
+  constructor with a parent folder, except for File objects that aren't on a
+  real disk, such as the in-memory FAT model used for testing, which know how
+  to create their own children.
+*/
+  static File childFile(File parent, String name)
+  {
+    if (parent instanceof SortFatFolder2Entry) // does parent make children?
+      return(((SortFatFolder2Entry) parent).getChild(name));
+    return(new File(parent, name)); // normal file or folder on disk
+  }
+
+
+/*
+  closeJournal() method
+
+  Close the write-ahead journal, if there is one.  After a successful sort, the
+  journal is no longer needed and is deleted.  Otherwise, the journal is kept
+  so that the user can finish or undo the sort later.
+*/
+  void closeJournal()
+  {
+    if (journalWriter == null)    // do we have an open journal?
+      return;
+    try
+    {
+      journalWriter.flush();      // write anything still in buffer
+      journalStream.getFD().sync(); // make sure it's on disk
+      journalWriter.close();
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't close journal file " + journalFile.getPath() + ": "
+        + ioe.getMessage());
+      cancel.cancel();            // keep journal, since it may be incomplete
+    }
+    journalStream = null;
+    journalWriter = null;
+    if (cancel.isCancelled())     // was sorting interrupted?
+    {
+      putOutput("Journal file kept for -j2 (resume) or -j3 (rollback): "
+        + journalFile.getPath());
+    }
+    else if (journalFile.delete() == false) // journal no longer needed
+      putOutput("Can't delete journal file: " + journalFile.getPath());
+    journalFile = null;           // don't close twice
+  }
+
+
+/*
+  closePlan() method
+
+  Close the dry run plan, if there is one, and tell the user where it is.  A
+  new plan is started if more operations are planned later.
+*/
+  void closePlan()
+  {
+    if (planWriter == null)       // do we have an open plan?
+      return;
+    try
+    {
+      planWriter.close();
+      putOutput("Dry run plan written to: " + planOutput.getPath());
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't close dry run plan " + planOutput.getPath() + ": "
+        + ioe.getMessage());
+    }
+    planWriter = null;            // don't close twice
+  }
+
+
+/*
+  closeTrace() method
+
+  Close the event trace file, if there is one.  The file is opened again (and
+  appended) if more events are traced later.
+*/
+  void closeTrace()
+  {
+    if (traceWriter == null)      // do we have an open trace?
+      return;
+    try { traceWriter.close(); }
+    catch (IOException ioe)
+    {
+      putOutput("Can't close event trace " + traceFile.getPath() + ": "
+        + ioe.getMessage());
+    }
+    traceWriter = null;           // don't close twice
+  }
+
+
+/*
+  collationKey() method
+
+  Return a name's CollationKey as a string with one character for each byte,
+  plus one, and a null character at the end, so that comparing these strings
+  gives the same result as comparing the CollationKey objects.
+*/
+  String collationKey(String name)
+  {
+    byte[] bytes;                 // bytes from CollationKey
+    char[] chars;                 // our result, as characters
+    int i;                        // index variable
+
+    bytes = collator.getCollationKey(name).toByteArray();
+    chars = new char[bytes.length + 1];
+    for (i = 0; i < bytes.length; i ++)
+      chars[i] = (char) ((bytes[i] & 0xFF) + 1); // no nulls inside key
+    chars[bytes.length] = '\u0000'; // end of key
+    return(new String(chars));
+  }
+
+
+/*
+  compareNames() method
+
+  Compare two entries in the sorting arrays built by sortNameOrder().  The
+  result is negative, zero, or positive, exactly as if we had compared sorting
+  keys with String.compareTo(), where a key is the group prefix, the lowercase
+  name, a space, and then the original name.
+*/
+  static int compareNames(
+    int one,                      // index of first entry
+    int two,                      // index of second entry
+    String[] names,               // file names without the path
+    String[] lowers,              // lowercase names, or <null> if strict case
+    int[] groups)                 // sorting group for each name
+  {
+    char ch1, ch2;                // characters from each pretend key
+    int i;                        // index variable
+    String lower1, lower2;        // lowercase names
+    int size1, size2;             // lengths of each pretend key
+    String name1, name2;          // original names
+
+    if (groups[one] != groups[two]) // files and folders in different groups?
+      return(groups[one] - groups[two]);
+    name1 = names[one];
+    name2 = names[two];
+    if (lowers == null)           // strict case, compare original names only
+      return(name1.compareTo(name2));
+    lower1 = lowers[one];
+    lower2 = lowers[two];
+    if (lower1.length() == lower2.length()) // common case: spaces line up
+    {
+      i = lower1.compareTo(lower2);
+      return((i != 0) ? i : name1.compareTo(name2));
+    }
+
+    /* The lowercase names have different lengths, so the space after one
+    lowercase name gets compared with a character in the other name.  Walk
+    through both pretend keys one character at a time. */
+
+    size1 = lower1.length() + 1 + name1.length();
+    size2 = lower2.length() + 1 + name2.length();
+    for (i = 0; (i < size1) && (i < size2); i ++)
+    {
+      ch1 = keyChar(lower1, name1, i);
+      ch2 = keyChar(lower2, name2, i);
+      if (ch1 != ch2)
+        return(ch1 - ch2);
+    }
+    return(size1 - size2);
+
+  } // end of compareNames() method
+
+
+/*
+  copyBack() method
+
+  Copy a file from the local copy folder back to the folder being sorted, and
+  give it the same date and time stamp.  The new directory entry goes in the
+  first free slot, like a moved entry.  The transferTo() method lets the system
+  read and write without passing the bytes through Java, in large pieces, and
+  force() waits until the file is on the device.  Return true if the copy
+  worked, or print an error and return false.
+*/
+  boolean copyBack(
+    File copy,                    // local copy of file
+    File target)                  // where file goes in sorted folder
+  {
+    FileChannel input;            // input from <copy>
+    FileChannel output;           // output to <target>
+    long position;                // bytes copied so far
+    long size;                    // total bytes in <copy>
+    long start;                   // starting time of copy
+    long transfer;                // bytes copied by one transferTo() call
+
+    writeJournal(("copy\t" + copy.getPath() + "\t" + target.getPath()), false);
+    start = System.currentTimeMillis();
+    try
+    {
+      input = new FileInputStream(copy).getChannel();
+      try
+      {
+        output = new FileOutputStream(target).getChannel();
+        try
+        {
+          position = 0;
+          size = input.size();
+          while (position < size)
+          {
+            transfer = input.transferTo(position, Math.min(COPY_BUFFER,
+              (size - position)), output);
+            if (transfer <= 0)    // local copy must have changed size
+              throw new IOException("local copy is shorter than expected");
+            position += transfer;
+          }
+          output.force(true);     // make sure it's on the device
+        }
+        finally
+        {
+          output.close();
+        }
+      }
+      finally
+      {
+        input.close();
+      }
+      target.setLastModified(copy.lastModified()); // ignore errors
+    }
+    catch (IOException ioe)
+    {
+      recordMetric(METRIC_COPY, start);
+      traceEvent("EntryCopyBack", copy, target, 1, 0, start, false);
+      putOutput("Can't copy " + copy.getPath() + " to " + target.getPath()
+        + ": " + ioe.getMessage());
+      cancel.cancel();
+      return(false);
+    }
+    recordMetric(METRIC_COPY, start);
+    writeJournal("done", false);  // operation completed
+    traceEvent("EntryCopyBack", copy, target, 1, size, start, true);
+    return(true);
+  }
+
+
+/*
+  copyOut() method
+
+  Copy a file from the folder being sorted to the local copy folder, with the
+  same date and time stamp, and return the CRC32 checksum of what was read.
+  The copy is written under a temporary name beside the local copy folder, and
+  only renamed into that folder once it is complete, so anything in the local
+  copy folder after a crash is a whole file.  Return -1 after printing an
+  error.
+*/
+  long copyOut(
+    File source,                  // file in folder being sorted
+    File copy)                    // where local copy goes
+  {
+    ByteBuffer buffer;            // bytes read from <source>
+    CRC32 checksum;               // checksum of bytes read so far
+    FileChannel input;            // input from <source>
+    FileChannel output;           // output to <partial>
+    File partial;                 // local copy while being written
+    long size;                    // bytes copied so far
+    long start;                   // starting time of copy
+
+    writeJournal(("copy\t" + source.getPath() + "\t" + copy.getPath()), false);
+    partial = new File(copy.getParentFile().getPath() + ".part");
+    start = System.currentTimeMillis();
+    try
+    {
+      checksum = new CRC32();
+      size = 0;
+      input = new FileInputStream(source).getChannel();
+      try
+      {
+        output = new FileOutputStream(partial).getChannel();
+        try
+        {
+          buffer = ByteBuffer.allocate(COPY_BUFFER);
+          while (input.read(buffer) >= 0)
+          {
+            buffer.flip();        // write what we just read
+            checksum.update(buffer.array(), 0, buffer.limit());
+            size += buffer.limit();
+            while (buffer.hasRemaining())
+              output.write(buffer);
+            buffer.clear();       // reuse buffer for next read
+          }
+          output.force(true);     // make sure it's on the local disk
+        }
+        finally
+        {
+          output.close();
+        }
+      }
+      finally
+      {
+        input.close();
+      }
+      partial.setLastModified(source.lastModified()); // ignore errors
+      if (partial.renameTo(copy) == false) // local disk, no retries
+        throw new IOException("can't rename " + partial.getPath());
+    }
+    catch (IOException ioe)
+    {
+      partial.delete();           // ignore errors
+      recordMetric(METRIC_COPY, start);
+      traceEvent("EntryCopyOut", source, copy, 1, 0, start, false);
+      putOutput("Can't copy " + source.getPath() + " to " + copy.getPath()
+        + ": " + ioe.getMessage());
+      cancel.cancel();
+      return(-1);
+    }
+    recordMetric(METRIC_COPY, start);
+    writeJournal("done", false);  // operation completed
+    traceEvent("EntryCopyOut", source, copy, 1, size, start, true);
+    return(checksum.getValue());
+  }
+
+
+/*
+  createFolder() method
+
+  Create a new folder, with a delay and retries if the file system is slow.
+  See settleOperation().
+*/
+  boolean createFolder(File folder)
+  {
+    return(settleOperation(SETTLE_CREATE, folder, null));
+  }
+
+
+/*
+  deleteFolder() method
+
+  Delete an empty folder, with a delay and retries if the file system is slow.
+  See settleOperation().
+*/
+  boolean deleteFolder(File folder)
+  {
+    return(settleOperation(SETTLE_DELETE, folder, null));
+  }
+
+
+/*
+  formatPercentile() method
+
+  Return a percentile for one type of file system call as text, from the upper
+  limit of the histogram bucket where that percentile falls.
+*/
+  String formatPercentile(
+    int index,                    // METRIC_NAMES index
+    double fraction)              // percentile as a fraction, 0.5 for 50%
+  {
+    int i;                        // index variable
+    long seen;                    // calls counted in buckets so far
+    long wanted;                  // calls needed to reach percentile
+
+    wanted = (long) Math.ceil(metricCounts[index] * fraction);
+    seen = 0;
+    for (i = 0; i < (METRIC_BUCKETS - 1); i ++)
+    {
+      seen += metricBuckets[index][i];
+      if (seen >= wanted)         // is the percentile in this bucket?
+        break;
+    }
+    if (i == 0)                   // calls faster than the clock
+      return("< 1 ms");
+    return("< " + formatComma.format(1L << i) + " ms");
+  }
+
+
+/*
+  getCopyFolder() method
+
+  Return the local folder where files wait while a folder is sorted by copying
+  (the -m3 option), creating this folder the first time we need it.  The local
+  copy folder is in the folder given with the option, or in the system's
+  temporary folder, and should be on a fast local disk.  Batch workers share
+  that folder, so if another worker took our name in the same millisecond, we
+  try the next number.  Return <null> after an error.
+*/
+  File getCopyFolder()
+  {
+    boolean created;              // true if we made a new local folder
+    File parent;                  // where local copy folder goes
+    long suffix;                  // number after "Copy" in folder name
+    int tries;                    // number of names tried
+
+    if (copyLocal == null)        // have we created the local folder yet?
+    {
+      parent = (copyFolder != null) ? copyFolder : new File(
+        System.getProperty("java.io.tmpdir"));
+      suffix = System.currentTimeMillis();
+      tries = 0;
+      do
+      {
+        copyLocal = new File(parent, ("Copy" + (suffix + tries)));
+        created = copyLocal.mkdir(); // need new and empty folder
+      } while ((created == false) && copyLocal.exists()
+        && (++ tries < COPY_TRIES)); // name taken by another worker?
+      if (created == false)
+      {
+        putOutput("Can't create local copy folder: " + copyLocal.getPath());
+        cancel.cancel();          // don't do anything more
+        copyLocal = null;         // nothing to delete later
+        return(null);
+      }
+      writeJournal(("local\t" + copyLocal.getPath()), true); // only if ours
+      putOutput("Local copy folder is: " + copyLocal.getPath());
+    }
+    return(copyLocal);
+  }
+
+
+/*
+  getStagingFolder() method
+
+  Return the folder where entries wait while another folder is sorted in
+  place, creating this staging folder the first time we need it.  The staging
+  folder is in the same parent folder as the user's given folder, so entries
+  can be moved by renaming.  Return <null> after an error.
+*/
+  File getStagingFolder()
+  {
+    if (stagingFolder == null)    // have we created the staging folder yet?
+    {
+      stagingFolder = childFile(stagingParent, ("Stage"
+        + System.currentTimeMillis()));
+      writeJournal(("stage\t" + stagingFolder.getPath()), true);
+      if (createFolder(stagingFolder) == false) // need new and empty folder
+      {
+        putOutput("Can't create staging folder: " + stagingFolder.getPath());
+        cancel.cancel();          // don't do anything more
+        stagingFolder = null;     // nothing to delete later
+        return(null);
+      }
+      putOutput("Staging folder is: " + stagingFolder.getPath());
+    }
+    return(stagingFolder);
+  }
+
+
+/*
+  keyChar() method
+
+  Return one character from a pretend sorting key that is a lowercase name, a
+  space, and the original name.  See compareNames().
+*/
+  static char keyChar(String lower, String name, int index)
+  {
+    if (index < lower.length())   // inside the lowercase name?
+      return(lower.charAt(index));
+    else if (index == lower.length()) // space between names
+      return(' ');
+    else                          // inside the original name
+      return(name.charAt(index - lower.length() - 1));
+  }
+
+
+/*
+  listFolder() method
+
+  Return the unsorted contents of a folder, or <null> if the folder can't be
+  read.  During a dry run, nothing is really moved, so a folder that would
+  have been moved is read from its real location.  Entries are then given
+  names in the folder where they would be, so that the operations in our plan
+  have the correct names.
+*/
+  File[] listFolder(File folder)
+  {
+    int i;                        // index variable
+    File[] result;                // our result
+    long start;                   // starting time of file system call
+
+    start = System.currentTimeMillis();
+    result = realFile(folder).listFiles(); // no filter, original order
+    recordMetric(METRIC_LIST, start); // time for listing folder
+    if (planFlag && (result != null)) // dry run, use names where they would be
+    {
+      for (i = 0; i < result.length; i ++)
+        result[i] = childFile(folder, result[i].getName());
+    }
+    return(result);
+  }
+
+
+/*
+  loadManifest() method
+
+  If the user wants a manifest (-i1 option), read the manifest written by the
+  last successful sort of the given folder.  The manifest is a text file in
+  the parent folder, beside the given folder, so it goes with the device and
+  doesn't depend on where the device is mounted.  A manifest for a different
+  sorting order is ignored.  Errors aren't fatal: without the manifest, every
+  folder is listed, as usual.
+*/
+  void loadManifest(File startFolder)
+  {
+    File file;                    // manifest file for <startFolder>
+    String line;                  // one line from manifest
+    BufferedReader reader;        // input from manifest file
+    SortFatFolder2Manifest record; // one folder from manifest
+
+    manifestNew = manifestOld = null; // no manifest unless user wants one
+    manifestBase = manifestRoot = startFolder; // paths in manifest start here
+    if (manifestFlag == false)
+      return;
+    manifestNew = new LinkedHashMap(); // same order as sorted, for people
+    manifestOld = new HashMap();
+    file = new File(startFolder.getParentFile(), (startFolder.getName()
+      + MANIFEST_SUFFIX));
+    putOutput("Manifest file is: " + file.getPath());
+    if (stampFlag == false)       // manifest is written, but not trusted
+      putOutput("Folder stamps aren't trusted on this system, listing every folder (-i2 to skip anyway).");
+    if (file.exists() == false)   // nothing from an earlier run
+      return;
+    try
+    {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+        file), "UTF-8"));
+      try
+      {
+        line = reader.readLine();
+        if ((line == null) || (line.equals(MANIFEST_HEADER + "\t"
+          + manifestOrder()) == false))
+        {
+          putOutput("Manifest is for a different sorting order, ignored: "
+            + file.getPath());
+          return;
+        }
+        while ((line = reader.readLine()) != null)
+        {
+          record = SortFatFolder2Manifest.parse(line);
+          if (record != null)     // ignore damaged lines
+            manifestOld.put(record.path, record);
+        }
+      }
+      finally
+      {
+        reader.close();
+      }
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't read manifest file " + file.getPath() + ": "
+        + ioe.getMessage());
+      manifestOld.clear();        // part of a manifest isn't safe to use
+    }
+  }
+
+
+/*
+  loadTags() method
+
+  Read the cache of disc and track numbers given with the -f3(file) option,
+  the first time that we need it.  Each line has a file's size, date and time
+  stamp, sort key, and full path.  A missing file is an empty cache, and
+  errors aren't fatal: tags are read again from files not in the cache.
+*/
+  void loadTags()
+  {
+    String[] fields;              // tab-separated fields from one line
+    String line;                  // one line from cache file
+    BufferedReader reader;        // input from cache file
+
+    tagCache = new HashMap();     // empty cache unless we read one
+    tagChanged = false;           // nothing to save yet
+    if ((tagFile == null) || (tagFile.exists() == false))
+      return;
+    try
+    {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+        tagFile), "UTF-8"));
+      try
+      {
+        line = reader.readLine();
+        if ((line == null) || (line.equals(TAG_HEADER) == false))
+          throw new IOException("not a tag cache");
+        while ((line = reader.readLine()) != null)
+        {
+          fields = line.split("\t");
+          if (fields.length == 4)
+          {
+            tagCache.put(fields[3], new long[] {Long.parseLong(fields[0]),
+              Long.parseLong(fields[1]), Long.parseLong(fields[2])});
+          }
+        }
+      }
+      finally
+      {
+        reader.close();
+      }
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't read tag cache " + tagFile.getPath() + ": "
+        + ioe.getMessage());
+      tagCache.clear();           // read tags again from files
+    }
+    catch (NumberFormatException nfe)
+    {
+      putOutput("Can't read tag cache " + tagFile.getPath() + ": "
+        + nfe.getMessage());
+      tagCache.clear();
+    }
+  }
+
+
+/*
+  manifestOrder() method
+
+  Return the options that decide the sorting order, much as they appear on the
+  command line, so that a manifest is only used with the same order.
+*/
+  String manifestOrder()
+  {
+    String collate;               // option for comparing names
+
+    if (collateMode == COLLATE_LOCALE)
+      collate = "-c3(" + collateLocale + "," + collateStrength + ")";
+    else if (collateMode == COLLATE_NATURAL)
+      collate = "-c2";
+    else
+      collate = "-c" + (caseFlag ? 1 : 0);
+    return(collate + " -f" + sortOrderIndex + ((sortSpec != null) ? (" -k("
+      + sortSpec.text + ")") : ""));
+  }
+
+
+/*
+  manifestPath() method
+
+  Return the path of a folder relative to the given folder, with "/" between
+  names and "." for the given folder itself, or <null> if the folder isn't
+  inside the given folder.  While moveFiles() moves the given folder into a
+  temporary folder, paths start from the temporary folder instead, since it
+  will be renamed as the given folder.
+*/
+  String manifestPath(File folder)
+  {
+    String path;                  // full path of <folder>
+    String root;                  // full path of given or temporary folder
+
+    path = folder.getPath();
+    root = manifestBase.getPath();
+    if (path.equals(root))
+      return(".");
+    if (path.startsWith(root + File.separator) == false)
+      return(null);
+    return(path.substring(root.length() + 1).replace(File.separatorChar, '/'));
+  }
+
+
+/*
+  manifestRecord() method
+
+  Return a manifest record for a folder's sorted contents, without a path or a
+  stamp, which recordManifest() fills in when the folder is done.  We keep the
+  number of entries, a hash of the names in sorted order, and the names of the
+  subfolders, so that the next run can go through this folder to its
+  subfolders without listing it.  Return <null> if there is no manifest.
+*/
+  SortFatFolder2Manifest manifestRecord(
+    File[] sorted,                // sorted contents of a folder
+    boolean[] folders)            // true for each subfolder in <sorted>
+  {
+    long hash;                    // hash of names in sorted order
+    int i, k;                     // index variables
+    String[] subfolders;          // names of subfolders in sorted order
+
+    if (manifestNew == null)      // no manifest?
+      return(null);
+    hash = k = 0;
+    for (i = 0; i < sorted.length; i ++)
+    {
+      hash = (hash * 31) + sorted[i].getName().hashCode();
+      if (folders[i]) k ++;       // count subfolders
+    }
+    subfolders = new String[k];
+    for (i = k = 0; i < sorted.length; i ++)
+      if (folders[i])
+        subfolders[k ++] = sorted[i].getName();
+    return(new SortFatFolder2Manifest(null, 0, sorted.length, hash,
+      subfolders));
+  }
+
+
+/*
+  measureLatency() method
+
+  For a dry run, time how long the file system takes to create a folder, move
+  (rename) a folder, set a date and time stamp, and delete a folder.  We do
+  this with a probe folder in the same parent folder as the user's folder,
+  which is deleted when we are done.  This is only done when the user asks
+  (-n2 option): on FAT, the parent folder is left with deleted entries and a
+  new date and time stamp, and a dry run otherwise changes nothing.
+*/
+  void measureLatency(File parent)
+  {
+    long[] elapsed;               // total milliseconds by PLAN_NAMES index
+    int i;                        // index variable
+    File moved;                   // probe folder after moving (renaming)
+    File probe;                   // probe folder that we create and delete
+    int rounds;                   // number of complete rounds
+    long start;                   // starting time of each operation
+
+    elapsed = new long[PLAN_NAMES.length];
+    probe = childFile(parent, ("Probe" + System.currentTimeMillis()));
+    moved = childFile(parent, (probe.getName() + "x"));
+    planLatency = new double[PLAN_NAMES.length];
+    for (rounds = 0; rounds < PROBE_ROUNDS; rounds ++)
+    {
+      start = System.currentTimeMillis();
+      if (probe.mkdir() == false) break;
+      elapsed[SETTLE_CREATE] += System.currentTimeMillis() - start;
+      start = System.currentTimeMillis();
+      if (probe.renameTo(moved) == false) break;
+      elapsed[SETTLE_MOVE] += System.currentTimeMillis() - start;
+      start = System.currentTimeMillis();
+      if (moved.renameTo(probe) == false) break;
+      elapsed[SETTLE_RENAME] += System.currentTimeMillis() - start;
+      start = System.currentTimeMillis();
+      probe.setLastModified(start); // ignore errors
+      elapsed[PLAN_STAMP] += System.currentTimeMillis() - start;
+      start = System.currentTimeMillis();
+      if (probe.delete() == false) break;
+      elapsed[SETTLE_DELETE] += System.currentTimeMillis() - start;
+    }
+    moved.delete();               // clean up after any failure
+    probe.delete();
+    if (rounds == 0)              // couldn't time anything
+    {
+      putOutput("Can't measure file system latency in: " + parent.getPath());
+      return;
+    }
+    for (i = 0; i < PLAN_NAMES.length; i ++)
+      planLatency[i] = ((double) elapsed[i]) / rounds;
+  }
+
+
+/*
+  mergeFolder() method
+
+  Move everything from one folder into another folder, without sorting, when
+  finishing or undoing an interrupted sort.  A subfolder that also exists in
+  the destination is merged with the existing subfolder, because its contents
+  were only partly moved before the interruption.
+*/
+  void mergeFolder(File oldFolder, File newFolder)
+  {
+    File[] contents;              // contents of <oldFolder>
+    int i;                        // index variable
+    File target;                  // where next File object goes
+
+    if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+    contents = listFolder(oldFolder); // no filter, original order
+    if (contents == null)         // can't read folder?
+    {
+      putOutput("Can't read folder: " + oldFolder.getPath());
+      cancel.cancel();
+      return;
+    }
+    for (i = 0; i < contents.length; i ++)
+    {
+      if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+      setStatusMessage(contents[i].getPath()); // running status is path, name
+      target = childFile(newFolder, contents[i].getName()); // where to go
+      if (target.isDirectory() && contents[i].isDirectory()) // partly moved?
+      {
+        mergeFolder(contents[i], target); // move remaining entries
+        if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+        if (deleteFolder(contents[i]) == false) // delete folder, now empty
+        {
+          putOutput("Can't delete subfolder: " + contents[i].getPath());
+          cancel.cancel();
+          return;
+        }
+      }
+      else if (moveEntry(contents[i], target) == false) // move by renaming
+      {
+        putOutput("Can't rename " + contents[i].getPath() + " as "
+          + target.getPath());
+        cancel.cancel();
+        return;
+      }
+      else
+        totalMoved ++;            // one more file or subfolder moved
+    }
+  }
+
+
+/*
+  moveEntry() method
+
+  Move (rename) a file or subfolder, with a delay and retries if the file
+  system is slow.  See settleOperation().
+*/
+  boolean moveEntry(File source, File target)
+  {
+    return(settleOperation(SETTLE_MOVE, source, target));
+  }
+
+
+/*
+  moveFiles() method
+
+  Move all files and subfolders from an original folder to a new folder.  We do
+  this in Java by renaming; there is no explicit "move" method.
+
+  Subfolders that are sorted in a new folder are done depth first, without
+  recursion: each folder being moved has a cursor on a stack, and we always
+  continue with the cursor on top.  Entries are released from a cursor as soon
+  as they are moved, so memory is one folder's listing plus whatever is still
+  waiting in the folders above it, and deep trees can't overflow the Java
+  stack.
+*/
+  void moveFiles(File oldFolder, File newFolder)
+  {
+    SortFatFolder2Cursor cursor;  // folder being moved, top of <stack>
+    int first;                    // number of entries already in position
+    int i;                        // index variable
+    SortFatFolder2Listing listing; // sorted contents with subfolder flags
+    File next;                    // next File object from cursor
+    File[] raw;                   // unsorted contents of subfolder <next>
+    File[] sorted;                // sorted contents of subfolder <next>
+    boolean[] sortedSubs;         // true for each subfolder in <sorted>
+    ArrayList stack;              // cursors for folders being moved
+    long stamp;                   // date and time stamp for subfolder
+    File target;                  // where next File object goes
+
+    if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+    stack = new ArrayList();
+    listing = sortFileList(listFolder(oldFolder)); // no filter, but sorted
+    cursor = new SortFatFolder2Cursor(oldFolder, newFolder, listing.files,
+      listing.folders, 0);
+    cursor.record = manifestRecord(listing.files, listing.folders);
+    traceEvent("FolderSortStart", oldFolder, newFolder,
+      cursor.contents.length, 0, cursor.start, true);
+    stack.add(cursor);
+    while (stack.isEmpty() == false) // until the given folder is done
+    {
+      if (cancel.isCancelled()) break; // stop if user cancel or fatal error
+      cursor = (SortFatFolder2Cursor) stack.get(stack.size() - 1);
+      if (cursor.index >= cursor.contents.length) // end of this folder?
+      {
+        /* All entries have left this folder.  Except for the caller's folder,
+        delete the original subfolder, now empty, and restore the date and
+        time stamp on the new one. */
+
+        traceEvent("FolderSortEnd", cursor.oldFolder, cursor.newFolder,
+          cursor.contents.length, 0, cursor.start, true);
+        stack.remove(stack.size() - 1); // continue with parent folder
+        if (stack.isEmpty())      // was this the caller's folder?
+        {
+          if (cursor.record != null) // stamp is set again after renaming
+            recordManifest(newFolder, readStamp(newFolder), cursor.record);
+          break;
+        }
+        if (deleteFolder(cursor.oldFolder) == false) // delete original folder
+        {
+          putOutput("Can't delete subfolder: " + cursor.oldFolder.getPath());
+          cancel.cancel();
+          break;
+        }
+        totalSorted ++;           // one more recursive subfolder done
+        setStamp(cursor.newFolder, cursor.stamp); // ignore errors
+        if (cursor.record != null) // remember folder for next run
+          recordManifest(cursor.newFolder, readStamp(cursor.newFolder),
+            cursor.record);
+        continue;
+      }
+
+      i = cursor.index ++;        // next entry in this folder
+      next = cursor.contents[i];  // get next File object from cursor
+      cursor.contents[i] = null;  // release entry as soon as we are done
+      setStatusMessage(next.getPath()); // running status is path + file name
+      if (progressTotal > 0) showProgress(1); // one more entry in place
+      stamp = cursor.folders[i] ? readStamp(next) : 0; // only for folders
+      target = childFile(cursor.newFolder, next.getName()); // where to rename
+
+      if (recurseFlag && cursor.folders[i]) // recursive subfolder?
+      {
+        raw = listFolder(next);   // no filter, original order
+        listing = sortFileList(raw); // no filter, but sorted
+        sorted = listing.files;
+        sortedSubs = listing.folders; // which entries are subfolders
+        first = sortedPrefix(raw, sorted); // entries already in sorted order
+        raw = null;               // only need sorted order from now on
+        if (useInPlace(sorted.length, first, false) // fewer moves in place?
+          && ((resumeFlag == false) || (target.exists() == false)))
+        {
+          /* Move the subfolder as a unit, which keeps the order of entries
+          inside the subfolder, then sort in place whatever needs sorting. */
+
+          if (moveEntry(next, target) == false) // try to move by renaming
+          {
+            if (next.exists() == false) continue; // ignore missing folders
+            putOutput("Can't rename " + next.getPath() + " as "
+              + target.getPath());
+            cancel.cancel();
+            break;
+          }
+          totalMoved ++;          // one more subfolder moved
+          if (planFlag)           // dry run, subfolder is really still here
+            planAliases.put(target.getPath(), realFile(next));
+          if (first == sorted.length) // was the subfolder already sorted?
+          {
+            totalAlready ++;      // one more subfolder already sorted
+            if (progressTotal > 0) showProgress(sorted.length); // all done
+            sortSubfolders(target, sorted, sortedSubs); // may need sorting
+          }
+          else
+            sortInPlace(target);  // sort subfolder at its new location
+          setStamp(target, stamp); // date time stamp, ignore errors
+          if (manifestNew != null) // remember folder with restored stamp
+            recordManifest(target, readStamp(target), manifestRecord(sorted,
+              sortedSubs));
+          continue;
+        }
+
+        putOutput("Resorting subfolder: " + next.getPath());
+        if ((resumeFlag && target.isDirectory()) == false) // not partly done?
+        {
+          if (createFolder(target) == false) // create copy of this subfolder
+          {
+            putOutput("Can't create subfolder: " + target.getPath());
+            cancel.cancel();      // don't do anything more
+            break;
+          }
+        }
+
+        /* Move files and subfolders from this subfolder before going on with
+        the rest of the current folder.  The sorted listing we already have is
+        the same as listing the subfolder again. */
+
+        cursor = new SortFatFolder2Cursor(next, target, sorted, sortedSubs,
+          stamp);
+        cursor.record = manifestRecord(sorted, sortedSubs);
+        traceEvent("FolderSortStart", next, target, sorted.length, 0,
+          cursor.start, true);
+        stack.add(cursor);
+        continue;
+      }
+
+      /* Don't check if a file still exists before moving it.  That would be one
+      more request to the file system for every file, and files rarely
+      disappear while we are working.  Check only if the move fails. */
+
+      if (moveEntry(next, target) == false) // try to move by renaming
+      {
+        if (next.exists() == false) continue; // ignore missing files
+        putOutput("Can't rename " + next.getPath() + " as "
+          + target.getPath());
+        cancel.cancel();
+        break;
+      }
+      totalMoved ++;              // one more file or subfolder moved
+
+      /* Moving (renaming) a file doesn't change its date and time stamp, so
+      we only restore the stamp for subfolders, whose contents may change. */
+
+      if (cursor.folders[i]) setStamp(target, stamp); // ignore errors
+    }
+
+    while (stack.isEmpty() == false) // folders left unfinished by an error
+    {
+      cursor = (SortFatFolder2Cursor) stack.remove(stack.size() - 1);
+      traceEvent("FolderSortEnd", cursor.oldFolder, cursor.newFolder,
+        cursor.index, 0, cursor.start, false); // entries moved before error
+    }
+  } // end of moveFiles() method
+
+
+/*
+  nameKey() method
+
+  Return the sorting key for a name, by the user's choice of comparing names:
+  lowercase, natural order, or Collator.  Return <null> if names are compared
+  exactly as they are (-c1 option).
+*/
+  String nameKey(String name)
+  {
+    if (collateMode == COLLATE_LOCALE) // locale and strength from user
+      return(collationKey(name));
+    else if (collateMode == COLLATE_NATURAL) // numbers by value
+      return(naturalKey(name));
+    else if (caseFlag)            // uppercase/lowercase are different
+      return(null);
+    return(name.toLowerCase(Locale.ENGLISH)); // same object if no uppercase
+  }
+
+
+/*
+  naturalKey() method
+
+  Return a sorting key for natural order (-c2 option), where numbers in names
+  are compared by their value, so that "Track 2" comes before "Track 10".
+  Other characters are in lowercase.  Each run of digits becomes a '0', a
+  character for the number of digits without leading zeros, and then the
+  digits, so that comparing keys as strings compares numbers by size first.
+  The key ends with a null character, which is less than anything in a key,
+  so a key that is the beginning of a longer key comes first.
+*/
+  static String naturalKey(String name)
+  {
+    StringBuffer buffer;          // faster than String for multiple appends
+    char ch;                      // one character from <name>
+    int i, k;                     // index variables
+    int zeros;                    // end of leading zeros in a run of digits
+
+    buffer = new StringBuffer(name.length() + 4);
+    for (i = 0; i < name.length(); i ++)
+    {
+      ch = name.charAt(i);
+      if ((ch < '0') || (ch > '9')) // not a digit
+      {
+        buffer.append(Character.toLowerCase(ch));
+        continue;
+      }
+      for (k = i; (k < name.length()) && (name.charAt(k) >= '0')
+        && (name.charAt(k) <= '9'); k ++)
+        ;                         // find end of digits
+      for (zeros = i; (zeros < k) && (name.charAt(zeros) == '0'); zeros ++)
+        ;                         // skip leading zeros
+      buffer.append('0');         // same as a digit against other characters
+      buffer.append((char) (k - zeros + 1)); // more digits, bigger number
+      buffer.append(name.substring(zeros, k));
+      i = k - 1;                  // continue after digits
+    }
+    buffer.append('\u0000');      // end of key
+    return(buffer.toString());
+  }
+
+
+/*
+  openJournal() method
+
+  Open the write-ahead journal before we change anything in the user's folder.
+  A new journal is created in the parent folder, or the caller gives us the
+  journal from an interrupted sort, and we add to the end.  Every operation is
+  written before it starts, followed by "done" when it completes.  Operations
+  are flushed to disk in batches, to avoid waiting for the disk after every
+  line, while the temporary, staging, and rotated folders are flushed as soon
+  as they are known, because they are needed to finish an interrupted sort.
+*/
+  void openJournal(
+    File journal,                 // existing journal, or <null> for new
+    File folder,                  // user's given folder
+    long stamp)                   // date and time stamp for <folder>
+  {
+    if (planFlag || (journalMode == JOURNAL_OFF)) // dry run or no journal?
+      return;
+    journalFile = (journal != null) ? journal : new File(folder.getParentFile(),
+      ("Journal" + System.currentTimeMillis() + ".txt"));
+    try
+    {
+      journalStream = new FileOutputStream(journalFile, (journal != null));
+      journalWriter = new BufferedWriter(new OutputStreamWriter(journalStream,
+        "UTF-8"));
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't open journal file " + journalFile.getPath() + ": "
+        + ioe.getMessage());
+      cancel.cancel();            // don't sort without the journal
+      journalFile = null;
+      journalStream = null;
+      journalWriter = null;
+      return;
+    }
+    journalCount = 0;             // nothing written since last flush
+    if (journal == null)          // new journal needs to say what it's for
+    {
+      putOutput("Journal file is: " + journalFile.getPath());
+      writeJournal(JOURNAL_HEADER, false);
+      writeJournal(("folder\t" + folder.getPath() + "\t" + stamp), true);
+    }
+  }
+
+
+/*
+  prescanFolder() method
+
+  Count the files and subfolders that will be sorted in the user's folder, so
+  that showProgress() can say how much is done and estimate the time left.
+  This only lists folders, which is much faster than moving entries, and the
+  user can cancel at any time.  We follow subfolders only if the sort does.
+  Folders that are unchanged since the last run are counted from the manifest
+  without listing them.
+*/
+  void prescanFolder(File startFolder)
+  {
+    File[] contents;              // contents of one folder
+    long entries;                 // total number of entries in all folders
+    long folders;                 // total number of folders listed
+    File folder;                  // folder being counted
+    int i;                        // index variable
+    ArrayList pending;            // folders that still need to be listed
+    SortFatFolder2Manifest record; // folder from last run, or <null>
+
+    entries = folders = 0;
+    pending = new ArrayList();
+    pending.add(startFolder);
+    while ((pending.isEmpty() == false) && (cancel.isCancelled() == false))
+    {
+      folder = (File) pending.remove(pending.size() - 1);
+      record = (manifestOld == null) ? null : unchangedFolder(folder,
+        readStamp(folder));       // count from manifest if folder unchanged
+      if (record != null)
+      {
+        entries += record.count;  // same entries as when it was sorted
+        folders ++;
+        for (i = 0; recurseFlag && (i < record.subfolders.length); i ++)
+          pending.add(childFile(folder, record.subfolders[i]));
+        continue;
+      }
+      contents = listFolder(folder); // no filter, original order
+      if (contents == null)       // protected folders give a null listing
+        continue;                 // no entries; sorting reports the error
+      setStatusMessage("Counting " + formatComma.format(entries) + " entries");
+      entries += contents.length; // every entry is put in place once
+      folders ++;                 // one more folder to be sorted
+      for (i = 0; recurseFlag && (i < contents.length); i ++)
+        if (contents[i].isDirectory()) // ignore files, only want subfolders
+          pending.add(contents[i]);
+    }
+    if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+    putOutput("Counted " + formatComma.format(entries)
+      + ((entries == 1) ? " file or subfolder" : " files and subfolders")
+      + " in " + formatComma.format(folders)
+      + ((folders == 1) ? " folder." : " folders."));
+    progressDone = progressLastDone = 0; // nothing sorted yet
+    progressLast = System.currentTimeMillis();
+    progressRate = 0.0;           // no rate until first measurement
+    progressTotal = entries;      // zero means no progress is shown
+  }
+
+
+/*
+  printMetrics() method
+
+  If the user wants, print the number of calls and how long they took for each
+  type of file system call, plus the time we spent waiting for a slow file
+  system, and the number of files moved per second.  Java 1.4 only has a clock
+  in milliseconds, so most calls take "less than 1 ms", and the histogram has
+  buckets for powers of two: under 1 ms, 1 ms, 2-3 ms, 4-7 ms, and so on.
+  Percentiles are the upper limit of the bucket that has them.
+*/
+  void printMetrics()
+  {
+    double elapsed;               // seconds since sorting started
+    int i;                        // index variable
+
+    if (metricFlag == false)      // does the user want timing?
+      return;
+    elapsed = (System.currentTimeMillis() - metricStart) / 1000.0;
+    for (i = 0; i < METRIC_NAMES.length; i ++)
+    {
+      if (metricCounts[i] == 0)   // only mention calls that were made
+        continue;
+      putOutput("Timing for " + METRIC_NAMES[i] + ": "
+        + formatComma.format(metricCounts[i])
+        + ((metricCounts[i] == 1) ? " call" : " calls") + ", total "
+        + formatComma.format(metricTotals[i]) + " ms, 50% "
+        + formatPercentile(i, 0.50) + ", 90% " + formatPercentile(i, 0.90)
+        + ", 99% " + formatPercentile(i, 0.99) + ", max "
+        + formatComma.format(metricMax[i]) + " ms.");
+    }
+    putOutput("Waiting for file system: " + formatComma.format(metricWaitCount)
+      + ((metricWaitCount == 1) ? " wait" : " waits") + ", total "
+      + formatComma.format(metricWaitTotal) + " ms.");
+    if (elapsed > 0.0)            // avoid dividing by zero
+    {
+      putOutput("Throughput: " + formatComma.format(totalMoved / elapsed)
+        + " files (or subfolders) moved per second over "
+        + formatComma.format(elapsed) + " seconds.");
+    }
+    if (metricFile != null)       // also write timing as CSV?
+      writeMetrics();
+  }
+
+
+/*
+  printPlanTotals() method
+
+  After a dry run, tell the user how many operations would have been done, and
+  estimate how long that would take from the latency we measured earlier, if
+  any.  The other totals in the summary are what would have been moved and
+  sorted.
+*/
+  void printPlanTotals()
+  {
+    StringBuffer buffer;          // faster than String for multiple appends
+    double estimate;              // estimated time in milliseconds
+    int i;                        // index variable
+
+    closePlan();                  // finish plan file, if anything planned
+    putOutput("Dry run, nothing was changed.  The following is what would have been done.");
+    buffer = new StringBuffer();
+    buffer.append("Planned operations:");
+    estimate = 0.0;
+    for (i = 0; i < PLAN_NAMES.length; i ++)
+    {
+      buffer.append((i > 0) ? ", " : " ");
+      buffer.append(PLAN_NAMES[i]);
+      buffer.append(" ");
+      buffer.append(formatComma.format(planCounts[i]));
+      if (planLatency != null)
+        estimate += planCounts[i] * planLatency[i];
+    }
+    buffer.append(".");
+    putOutput(buffer.toString());
+
+    if (planLatency == null)      // did we measure anything?
+    {
+      if (probeFlag == false)     // no, and the user didn't ask
+        putOutput("No time estimate; use -n2 to time a probe folder next to the given folder.");
+      return;
+    }
+    buffer.setLength(0);
+    buffer.append("Measured latency:");
+    for (i = 0; i < PLAN_NAMES.length; i ++)
+    {
+      buffer.append((i > 0) ? ", " : " ");
+      buffer.append(PLAN_NAMES[i]);
+      buffer.append(" ");
+      buffer.append(formatComma.format(planLatency[i]));
+      buffer.append(" ms");
+    }
+    buffer.append(".");
+    putOutput(buffer.toString());
+    putOutput("Estimated time is " + formatComma.format(estimate / 1000.0)
+      + " seconds, plus any delays and retries for a slow file system.");
+  }
+
+
+/*
+  printSettleDelays() method
+
+  Tell the user what delays we chose before file system operations, and how
+  many times an operation had to be tried again.  See settleOperation().
+*/
+  void printSettleDelays()
+  {
+    StringBuffer buffer;          // faster than String for multiple appends
+    int i;                        // index variable
+
+    buffer = new StringBuffer();
+    buffer.append("File system delays:");
+    for (i = 0; i < SETTLE_NAMES.length; i ++)
+    {
+      buffer.append((i > 0) ? ", " : " ");
+      buffer.append(SETTLE_NAMES[i]);
+      buffer.append(" ");
+      buffer.append(formatComma.format(settleDelay[i]));
+      buffer.append(" ms (");
+      buffer.append(formatComma.format(settleRetries[i]));
+      buffer.append((settleRetries[i] == 1) ? " retry)" : " retries)");
+    }
+    buffer.append(".");
+    putOutput(buffer.toString());
+  }
+
+
+/*
+  printSummary() method
+
+  Tell the user what we found and what was changed.
+*/
+  void printSummary()
+  {
+    if (planFlag)                 // dry run, nothing was really changed
+      printPlanTotals();          // report what would have been done
+    if (cancel.isCancelled())     // if cancelled by user or fatal error
+    {
+      putOutput("After an error, files may be in their original folder or a temporary folder.");
+    }
+    putOutput((planFlag ? "Would move " : "Moved ")
+      + formatComma.format(totalMoved)
+      + ((totalMoved == 1) ? " file (or subfolder)" : " files (or subfolders)")
+      + (planFlag ? " and sort " : " and sorted ")
+      + formatComma.format(totalSorted)
+      + ((totalSorted == 1) ? " subfolder." : " subfolders."));
+    if (totalAlready > 0)         // only mention if something was skipped
+    {
+      putOutput("Skipped " + formatComma.format(totalAlready)
+        + ((totalAlready == 1) ? " folder" : " folders")
+        + " already in sorted order"
+        + ((totalUnchanged > 0) ? (" (" + formatComma.format(totalUnchanged)
+        + " unchanged since last sort, not listed).") : "."));
+    }
+    if (planFlag == false)        // delays only mean something if real
+      printSettleDelays();        // delays and retries for file system
+    printMetrics();               // timing for file system calls, if wanted
+    closeTrace();                 // finish event trace, if any
+  }
+
+
+/*
+  processFatVolume() method
+
+  The caller gives us a Java File object that should be a FAT16 or FAT32 volume
+  (disk device) or an image file.  Directory entries are sorted directly in the
+  volume, starting with the root folder, which can't be done by moving files.
+*/
+  void processFatVolume(File givenFile)
+  {
+    RandomAccessFile access;      // read-write access to volume or image
+
+    if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+    putOutput("Volume or image file is: " + givenFile.getPath());
+    try
+    {
+      access = new RandomAccessFile(givenFile, (planFlag ? "r" : "rw"));
+                                  // dry run only needs to read
+      try
+      {
+        (new SortFatFolder2Volume(this, givenFile, access.getChannel()))
+          .sortVolume();          // sort root folder and maybe subfolders
+      }
+      finally
+      {
+        access.close();           // always close volume or image file
+      }
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't sort volume " + givenFile.getPath() + ": "
+        + ioe.getMessage());
+      cancel.cancel();            // don't do anything more
+    }
+  } // end of processFatVolume() method
+
+
+/*
+  processFileOrFolder() method
+
+  The caller gives us a Java File object that may be a file, a folder, or just
+  random garbage.  We only do whole folders (directories) in this program, not
+  individual files.
+*/
+  void processFileOrFolder(File givenFile)
+  {
+    long moved;                   // files moved before this folder, for trace
+    long stamp;                   // date and time stamp for file
+    long start;                   // starting time, for event trace
+    File startFolder;             // user's given folder
+    File startParent;             // parent folder of given folder
+
+    if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+
+    /* First we need the real (canonical) name of the folder.  Then we need the
+    parent folder, so we can create and rename a new folder. */
+
+    startFolder = givenFile;      // look closely at user's folder
+    try { startFolder = startFolder.getCanonicalFile(); }
+    catch (IOException ioe) { startFolder = null; }
+    if ((startFolder == null) || ((startFolder.isDirectory() == false)
+      && (journalMode < JOURNAL_RESUME))) // may be missing after a crash
+    {
+      putOutput("Not a folder (directory): " + givenFile.getPath());
+      cancel.cancel();            // don't do anything more
+      return;
+    }
+    stamp = readStamp(startFolder); // save current date and time stamp
+    putOutput("Original folder is: " + startFolder.getPath());
+
+    startParent = startFolder.getParentFile(); // also need parent folder
+    if (startParent == null)      // happens if given root folder on a drive
+    {
+      putOutput("Can't get parent folder for: " + startFolder.getPath());
+      cancel.cancel();
+      return;
+    }
+    putOutput("Parent folder is: " + startParent.getPath());
+    if (planFlag && probeFlag && (planLatency == null)) // timing estimates?
+      measureLatency(startParent);
+    if (journalMode >= JOURNAL_RESUME) // finish or undo an interrupted sort?
+    {
+      resumeJournal(startFolder); // everything is in the journal
+      return;
+    }
+    loadManifest(startFolder);    // folders sorted by last run, if wanted
+    if (progressFlag)             // count entries before we change anything
+    {
+      prescanFolder(startFolder); // sets <progressTotal>
+      if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+    }
+    openJournal(null, startFolder, stamp); // write-ahead journal, if wanted
+    start = System.currentTimeMillis(); // for event trace
+    moved = totalMoved;           // for event trace
+    traceEvent("FolderSortStart", startFolder, null, 0, 0, start, true);
+    sortGivenFolder(startFolder, startParent, stamp); // sort user's folder
+    traceEvent("FolderSortEnd", startFolder, null, (totalMoved - moved), 0,
+      start, (cancel.isCancelled() == false));
+    closeJournal();               // delete journal unless we were stopped
+    saveManifest();               // only if sort was successful
+    saveTags();                   // tags are correct, even after an error
+    progressTotal = 0;            // no progress until next given folder
+    if (progressFlag)             // tell listener that progress has ended
+      showProgress(0);
+
+  } // end of processFileOrFolder() method
+
+
+/*
+  putOutput() method
+
+  Send one line of output to the listener, or print it on standard output if
+  there is no listener.
+*/
+  void putOutput(String text)
+  {
+    if (listener == null)         // is anybody listening?
+      System.out.println(text);   // no, print on standard output
+    else
+      listener.putOutput(text);   // yes, let the caller decide where it goes
+  }
+
+
+/*
+  readTrackKeys() method
+
+  Return a sort key for each file in a folder listing, from the disc and track
+  numbers in the file's tags (ID3, FLAC or Vorbis comments, MP4), or TAG_NONE
+  if a file has no track number.  Files with the same size and date and time
+  stamp as in the tag cache aren't read again.  Other files are read by up to
+  TAG_THREADS threads, since the device may be slow to find each file, and
+  only the bytes for the tag headers are read.  Keys for subfolders are zero
+  and not used.
+*/
+  int[] readTrackKeys(
+    File[] input,                 // unsorted contents of a folder
+    boolean[] folders)            // true for each subfolder in <input>
+  {
+    long[] cached;                // size, stamp, key from cache
+    int i, k;                     // index variables
+    int[] missing;                // indexes of files not in cache
+    File[] real;                  // where each file really is, for dry run
+    SortFatFolder2Tags reader;    // reads tags for files not in cache
+    int[] result;                 // our result
+    long[] sizes;                 // size in bytes for each entry
+    long start;                   // starting time of file system call
+    long[] stamps;                // date and time stamp for each entry
+    Thread[] threads;             // threads running <reader>
+
+    if (tagCache == null)         // read cache file the first time
+      loadTags();
+    missing = new int[input.length];
+    real = new File[input.length];
+    result = new int[input.length];
+    sizes = new long[input.length];
+    stamps = new long[input.length];
+    k = 0;                        // no files to be read yet
+    for (i = 0; i < input.length; i ++)
+    {
+      if (folders[i]) continue;   // subfolders are sorted by name
+      result[i] = TAG_NONE;       // until we find a track number
+      if (TAG_NAME.matcher(input[i].getName()).matches() == false)
+        continue;                 // not a type of file that has tags
+      real[i] = realFile(input[i]); // not a dry run alias, which isn't there
+      start = System.currentTimeMillis();
+      sizes[i] = real[i].length();
+      stamps[i] = real[i].lastModified();
+      recordMetric(METRIC_READ, start); // time for size and stamp
+      cached = (long[]) tagCache.get(real[i].getAbsolutePath());
+      if ((cached != null) && (cached[0] == sizes[i])
+        && (cached[1] == stamps[i])) // same file as when we read its tags?
+      {
+        result[i] = (int) cached[2];
+      }
+      else
+        missing[k ++] = i;        // need to read this file
+    }
+    if (k == 0)                   // everything was in the cache
+      return(result);
+
+    /* Read tags for the files that weren't in the cache. */
+
+    setStatusMessage("Reading tags for " + formatComma.format(k)
+      + ((k == 1) ? " file" : " files"));
+    reader = new SortFatFolder2Tags(real, missing, k);
+    threads = new Thread[Math.min(k, TAG_THREADS)];
+    for (i = 0; i < threads.length; i ++)
+    {
+      threads[i] = new Thread(reader, "SortFatFolder2Tags");
+      threads[i].setDaemon(true); // don't keep program alive after an error
+      threads[i].start();
+    }
+    for (i = 0; i < threads.length; i ++)
+    {
+      try { threads[i].join(); }
+      catch (InterruptedException ie) { i --; /* wait again */ }
+    }
+    for (i = 0; i < k; i ++)
+    {
+      result[missing[i]] = reader.keys[i];
+      tagCache.put(real[missing[i]].getAbsolutePath(), new long[] {
+        sizes[missing[i]], stamps[missing[i]], reader.keys[i]});
+    }
+    tagChanged = true;            // save cache after this folder
+    return(result);
+  }
+
+
+/*
+  readStamp() method
+
+  Return the date and time stamp for a file or folder, and time the call.
+*/
+  long readStamp(File given)
+  {
+    long result;                  // our result
+    long start;                   // starting time of file system call
+
+    start = System.currentTimeMillis();
+    result = realFile(given).lastModified();
+    recordMetric(METRIC_READ, start); // time for reading stamp
+    return(result);
+  }
+
+
+/*
+  realFile() method
+
+  During a dry run, return where a file or folder really is, since a folder
+  that would have been moved is still in its original location.  Otherwise,
+  return the caller's File object unchanged.
+*/
+  File realFile(File given)
+  {
+    File alias;                   // real location of a moved folder
+    File parent;                  // given file or one of its parent folders
+
+    if (planFlag == false)        // not a dry run, everything is real
+      return(given);
+    for (parent = given; parent != null; parent = parent.getParentFile())
+    {
+      alias = (File) planAliases.get(parent.getPath());
+      if (alias != null)          // was this folder moved in the plan?
+      {
+        if (parent == given)      // the folder itself was moved
+          return(alias);
+        return(new File(alias, given.getPath().substring(parent.getPath()
+          .length() + 1)));       // a file or folder inside a moved folder
+      }
+    }
+    return(given);                // nothing was moved
+  }
+
+
+/*
+  recordManifest() method
+
+  Remember a folder that is now in sorted order, for the manifest written at
+  the end of a successful sort, with its date and time stamp after sorting.
+  The rest of the record comes from manifestRecord().
+*/
+  void recordManifest(
+    File folder,                  // folder that is now sorted
+    long stamp,                   // date and time stamp for <folder>
+    SortFatFolder2Manifest record) // from manifestRecord(), or <null>
+  {
+    String path;                  // relative path of <folder>
+
+    path = manifestPath(folder);
+    if ((manifestNew == null) || (record == null) || (path == null)
+      || (stamp == 0))
+      return;                     // no manifest, or can't tell if changed
+    record.path = path;
+    record.stamp = stamp;
+    manifestNew.put(path, record);
+  }
+
+
+/*
+  recordMetric() method
+
+  Count one file system call and put its time in the histogram.  Bucket zero is
+  for calls that take less than 1 ms; bucket <n> is for 2^(n-1) to 2^n - 1 ms.
+*/
+  void recordMetric(
+    int index,                    // METRIC_NAMES index
+    long start)                   // starting time of call in milliseconds
+  {
+    int bucket;                   // histogram bucket for this call
+    long elapsed;                 // time for this call in milliseconds
+
+    elapsed = System.currentTimeMillis() - start;
+    if (elapsed < 0) elapsed = 0; // clock was changed by system or user
+    bucket = 0;
+    while ((bucket < (METRIC_BUCKETS - 1)) && ((elapsed >> bucket) > 0))
+      bucket ++;
+    metricBuckets[index][bucket] ++;
+    metricCounts[index] ++;
+    metricMax[index] = Math.max(metricMax[index], elapsed);
+    metricTotals[index] += elapsed;
+  }
+
+
+/*
+  removeStagingFolder() method
+
+  Delete the staging folder and the local copy folder, if we created them,
+  after all folders that needed them have been sorted.  Both are left alone
+  after an error, since they may still contain files or subfolders.
+*/
+  void removeStagingFolder()
+  {
+    if (cancel.isCancelled())     // stop if user cancel or fatal error
+      return;
+    if ((stagingFolder != null) && (deleteFolder(stagingFolder) == false))
+    {                             // delete staging, now empty
+      putOutput("Can't delete staging folder: " + stagingFolder.getPath());
+      cancel.cancel();
+    }
+    stagingFolder = null;         // don't try to delete twice
+    if ((copyLocal != null) && (copyLocal.delete() == false))
+    {                             // delete local copies, now empty
+      putOutput("Can't delete local copy folder: " + copyLocal.getPath());
+      cancel.cancel();
+    }
+    copyLocal = null;             // don't try to delete twice
+  }
+
+
+/*
+  resetTotals() method
+
+  Reset all global counters, delays, and timing before sorting anything.
+*/
+  void resetTotals()
+  {
+    totalAlready = totalMoved = totalSorted = totalUnchanged = 0;
+                                  // nothing found or changed
+    settleDelay = new int[SETTLE_NAMES.length]; // no delays until we need them
+    settleRetries = new int[SETTLE_NAMES.length];
+    settleStreak = new int[SETTLE_NAMES.length];
+    planAliases = new HashMap(); // no folders moved during dry run
+    planCounts = new long[PLAN_NAMES.length];
+    planLatency = null;           // measure latency before first dry run
+    metricBuckets = new long[METRIC_NAMES.length][METRIC_BUCKETS];
+    metricCounts = new long[METRIC_NAMES.length]; // nothing timed yet
+    metricMax = new long[METRIC_NAMES.length];
+    metricStart = System.currentTimeMillis();
+    metricTotals = new long[METRIC_NAMES.length];
+    metricWaitCount = metricWaitTotal = 0;
+    progressTotal = 0;            // no progress until we count entries
+  }
+
+
+/*
+  resumeJournal() method
+
+  Find the journal for a sort that was interrupted by an error, by the user, or
+  by a system crash, and either finish the sort (-j2) or undo it (-j3).  We
+  don't replay each operation in the journal, because operations in the last
+  batch may not have been written to disk.  The journal tells us which folders
+  were involved, and the file system tells us how far we got: entries waiting
+  in the staging folder go back where they came from, and files that are
+  already in the new folder stay there.  Nothing that was done is done again.
+  The original order of a folder can't be restored, so undoing a sort means
+  that every file and subfolder is back in its original folder.
+*/
+  void resumeJournal(File startFolder)
+  {
+    long done;                    // number of operations completed
+    String[] fields;              // tab-separated fields from journal line
+    File[] files;                 // contents of parent folder
+    int i;                        // index variable
+    File journal;                 // newest journal for <startFolder>
+    String lastDone;              // last operation that completed
+    String lastTry;               // last operation that was started
+    String line;                  // one line from journal
+    File local;                   // local copy folder from journal
+    BufferedReader reader;        // input from journal file
+    File rotate;                  // folder with entries in staging folder
+    File staging;                 // staging folder from journal
+    long stamp;                   // date and time stamp for <startFolder>
+    File startParent;             // parent folder of given folder
+    File startTemp;               // temporary folder from journal
+
+    startParent = startFolder.getParentFile(); // journal is in parent folder
+    if (startParent == null)      // happens if given root folder on a drive
+    {
+      putOutput("Can't get parent folder for: " + startFolder.getPath());
+      cancel.cancel();
+      return;
+    }
+
+    /* Look for the newest journal file whose first lines name this folder.
+    Journal names have the time in milliseconds, so newer names are longer or
+    greater. */
+
+    done = stamp = 0;
+    journal = local = rotate = staging = startTemp = null;
+    lastDone = lastTry = null;
+    files = startParent.listFiles(); // no filter, original order
+    for (i = 0; (files != null) && (i < files.length); i ++)
+    {
+      if ((JOURNAL_NAME.matcher(files[i].getName()).matches() == false)
+        || ((journal != null) && ((files[i].getName().length()
+        < journal.getName().length()) || ((files[i].getName().length()
+        == journal.getName().length()) && (files[i].getName().compareTo(
+        journal.getName()) < 0)))))
+      {
+        continue;                 // not a journal, or older than one we have
+      }
+      try
+      {
+        reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+          files[i]), "UTF-8"));
+        try
+        {
+          line = reader.readLine();
+          if ((line != null) && line.equals(JOURNAL_HEADER)
+            && ((line = reader.readLine()) != null)
+            && line.startsWith("folder\t" + startFolder.getPath() + "\t"))
+          {
+            journal = files[i];   // newest journal for this folder so far
+          }
+        }
+        finally
+        {
+          reader.close();
+        }
+      }
+      catch (IOException ioe) { /* ignore journals that we can't read */ }
+    }
+    if (journal == null)
+    {
+      putOutput("No journal file found for: " + startFolder.getPath());
+      cancel.cancel();
+      return;
+    }
+    putOutput("Journal file is: " + journal.getPath());
+
+    /* Read the whole journal.  Only the last temporary folder, staging folder,
+    local copy folder, and rotated folder matter. */
+
+    try
+    {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+        journal), "UTF-8"));
+      try
+      {
+        while ((line = reader.readLine()) != null)
+        {
+          fields = line.split("\t");
+          if (fields[0].equals("done")) // previous operation completed
+          {
+            done ++;
+            lastDone = lastTry;
+          }
+          else if (fields.length < 2) // header or damaged line
+            continue;
+          else if (fields[0].equals("folder"))
+            stamp = Long.parseLong(fields[2]);
+          else if (fields[0].equals("local"))
+            local = new File(fields[1]);
+          else if (fields[0].equals("rotate"))
+            rotate = new File(fields[1]);
+          else if (fields[0].equals("stage"))
+            staging = new File(fields[1]);
+          else if (fields[0].equals("temp"))
+            startTemp = new File(fields[1]);
+          else                    // create, delete, move, rename
+            lastTry = line;
+        }
+      }
+      finally
+      {
+        reader.close();
+      }
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't read journal file " + journal.getPath() + ": "
+        + ioe.getMessage());
+      cancel.cancel();
+      return;
+    }
+    catch (RuntimeException re)   // bad number or missing field
+    {
+      putOutput("Journal file is damaged: " + journal.getPath());
+      cancel.cancel();
+      return;
+    }
+    putOutput("Journal has " + formatComma.format(done)
+      + ((done == 1) ? " operation" : " operations") + " completed"
+      + ((lastDone != null) ? (", last was: " + lastDone.replace('\t', ' '))
+      : "."));
+    if ((lastTry != null) && (lastTry != lastDone)) // interrupted operation?
+      putOutput("Interrupted operation was: " + lastTry.replace('\t', ' '));
+
+    /* Add to the same journal while we work, in case we are interrupted
+    again. */
+
+    openJournal(journal, startFolder, stamp); // append to existing journal
+    if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+    resumeFlag = true;            // partly moved folders are expected
+    copyLocal = ((local != null) && local.isDirectory()) ? local : null;
+                                  // reuse local copy folder if it exists
+    stagingFolder = ((staging != null) && staging.isDirectory()) ? staging
+      : null;                     // reuse staging folder if it exists
+    stagingParent = startParent;
+
+    /* Entries waiting in the staging folder, and files in the local copy
+    folder, go back to the folder that was being sorted in place. */
+
+    if ((stagingFolder != null) && (rotate != null))
+    {
+      putOutput("Returning entries from staging folder to: "
+        + rotate.getPath());
+      mergeFolder(stagingFolder, rotate); // no sorting yet
+    }
+    if ((cancel.isCancelled() == false) && (copyLocal != null)
+      && (rotate != null))
+    {
+      putOutput("Returning files from local copy folder to: "
+        + rotate.getPath());
+      returnCopies(copyLocal, rotate); // no sorting yet
+    }
+
+    /* A sort in a new folder is finished by moving what's left in the user's
+    folder, or undone by moving everything back to the user's folder.  The
+    user's folder may already be deleted, with everything in the new folder,
+    and then only the final rename is needed. */
+
+    if ((cancel.isCancelled() == false) && (startTemp != null)
+      && startTemp.isDirectory())
+    {
+      putOutput("Temporary folder is: " + startTemp.getPath());
+      if (startFolder.isDirectory() && (journalMode == JOURNAL_ROLLBACK))
+      {                           // put everything back in original folder
+        mergeFolder(startTemp, startFolder);
+        if ((cancel.isCancelled() == false)
+          && (deleteFolder(startTemp) == false))
+        {
+          putOutput("Can't delete temporary folder: " + startTemp.getPath());
+          cancel.cancel();
+        }
+      }
+      else if (startFolder.isDirectory()) // finish moving to new folder
+      {
+        moveFiles(startFolder, startTemp);
+        removeStagingFolder();    // delete staging folder if we created one
+        if ((cancel.isCancelled() == false)
+          && (deleteFolder(startFolder) == false))
+        {
+          putOutput("Can't delete original folder: " + startFolder.getPath());
+          cancel.cancel();
+        }
+      }
+      if ((cancel.isCancelled() == false) && (startFolder.exists() == false)
+        && (settleOperation(SETTLE_RENAME, startTemp, startFolder) == false))
+      {
+        putOutput("Can't rename " + startTemp.getPath() + " as "
+          + startFolder.getPath());
+        cancel.cancel();
+      }
+    }
+
+    /* Finally, when finishing a sort, sort anything that is still out of
+    order.  Folders that are already sorted aren't moved. */
+
+    if ((cancel.isCancelled() == false) && (startFolder.isDirectory() == false))
+    {
+      putOutput("Not a folder (directory): " + startFolder.getPath());
+      cancel.cancel();
+    }
+    if ((cancel.isCancelled() == false) && (journalMode == JOURNAL_RESUME))
+      sortInPlace(startFolder);   // sort folder without moving it
+    removeStagingFolder();        // delete staging folder if we created one
+    if (cancel.isCancelled() == false)
+      setStamp(startFolder, stamp); // date time stamp, ignore errors
+    resumeFlag = false;           // back to normal sorting
+    closeJournal();               // delete journal unless we were stopped
+  }
+
+
+/*
+  returnCopies() method
+
+  Put files from the local copy folder back in the folder that was being sorted
+  when a sort by copying (the -m3 option) was interrupted.  A file that is
+  already back, with the same checksum, only has its local copy deleted.  A
+  file that is missing, or was only partly written, is copied back again.  The
+  local copy is deleted after the file is checked.
+*/
+  void returnCopies(
+    File local,                   // local copy folder from journal
+    File folder)                  // folder that was being sorted
+  {
+    long checksum;                // CRC32 checksum of local copy
+    File[] copies;                // contents of local copy folder
+    int i;                        // index variable
+    File target;                  // where local copy belongs
+
+    new File(local.getPath() + ".part").delete(); // partial copy, if any
+    copies = local.listFiles();   // no filter, original order
+    for (i = 0; (copies != null) && (i < copies.length); i ++)
+    {
+      if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+      setStatusMessage(copies[i].getPath()); // running status is path + name
+      target = childFile(folder, copies[i].getName());
+      checksum = checksumFile(copies[i]);
+      if (checksum < 0)
+      {
+        putOutput("Can't read local copy: " + copies[i].getPath());
+        cancel.cancel();
+        return;
+      }
+      if ((target.isFile() == false) || (checksumFile(target) != checksum))
+      {                           // missing or partly written, copy again
+        if (copyBack(copies[i], target) == false)
+          return;                 // error message already printed
+        if (checksumFile(target) != checksum)
+        {
+          putOutput("Checksum doesn't match after copying "
+            + copies[i].getPath() + " to " + target.getPath());
+          cancel.cancel();
+          return;
+        }
+      }
+      if (copies[i].delete() == false) // file is safe, local copy isn't needed
+      {
+        putOutput("Can't delete local copy: " + copies[i].getPath());
+        cancel.cancel();
+        return;
+      }
+    }
+  }
+
+
+/*
+  rotateEntries() method
+
+  Move the entries of one folder out and back in sorted order, for the
+  rotateFolder() method.  Return true if the folder is now sorted, or false
+  after an error or if the user cancels.
+*/
+  boolean rotateEntries(
+    File folder,                  // folder to be sorted in place
+    File[] sorted,                // sorted contents of <folder>
+    boolean[] folders,            // true for each subfolder in <sorted>
+    int first)                    // index of first entry to be moved
+  {
+    long[] checksums;             // CRC32 checksums for copied files
+    String failure;               // first error from checking copies
+    int i;                        // index variable
+    File local;                   // local copy folder, or <null>
+    File staging;                 // staging folder, where entries wait
+    long stamp;                   // date and time stamp for <folder>
+    long[] stamps;                // date and time stamps for <sorted>
+    File target;                  // where next File object goes
+    Thread thread;                // thread running <verify>
+    SortFatFolder2Verify verify;  // checks copied files, or <null>
+
+    staging = getStagingFolder(); // create staging folder if necessary
+    if (staging == null) return(false); // error message already printed
+    local = null;                 // no local copies unless asked
+    if ((strategyIndex == STRATEGY_COPY) && (planFlag == false))
+    {
+      local = getCopyFolder();    // create local copy folder if necessary
+      if (local == null) return(false); // error message already printed
+    }
+    putOutput("Resorting folder in place: " + folder.getPath()
+      + ((first > 0) ? (" (moving " + formatComma.format(sorted.length - first)
+      + " of " + formatComma.format(sorted.length) + " entries)") : ""));
+    stamp = readStamp(folder);    // save current date and time stamp
+    checksums = new long[sorted.length];
+    stamps = new long[sorted.length];
+    writeJournal(("rotate\t" + folder.getPath()), true); // owns staging
+
+    for (i = first; i < sorted.length; i ++) // move unsorted entries out
+    {
+      if (cancel.isCancelled()) return(false); // user cancel or fatal error
+      setStatusMessage(sorted[i].getPath()); // running status is path + name
+      if (folders[i])             // only subfolders need their stamp saved
+        stamps[i] = readStamp(sorted[i]);
+      else if (local != null)     // copy file, delete original later
+      {
+        checksums[i] = copyOut(sorted[i], new File(local,
+          sorted[i].getName()));
+        if (checksums[i] < 0) return(false); // error message already printed
+        continue;
+      }
+      target = childFile(staging, sorted[i].getName()); // where to rename
+      if (moveEntry(sorted[i], target) == false) // try to move by renaming
+      {
+        putOutput("Can't rename " + sorted[i].getPath() + " as "
+          + target.getPath());
+        cancel.cancel();
+        return(false);
+      }
+    }
+
+    for (i = first; (local != null) && (i < sorted.length); i ++)
+    {                             // all files are safe, delete originals
+      if (cancel.isCancelled()) return(false); // user cancel or fatal error
+      if ((folders[i] == false)
+        && (settleOperation(SETTLE_DELETE, sorted[i], null) == false))
+      {
+        putOutput("Can't delete " + sorted[i].getPath() + " (local copy in "
+          + local.getPath() + ")");
+        cancel.cancel();
+        return(false);
+      }
+    }
+
+    failure = null;               // no errors from checking copies yet
+    verify = null;                // no thread unless we copy files
+    if (local != null)
+    {
+      verify = new SortFatFolder2Verify();
+      thread = new Thread(verify, "SortFatFolder2Verify");
+      thread.setDaemon(true);     // don't keep program alive after an error
+      thread.start();
+    }
+    try
+    {
+      for (i = first; i < sorted.length; i ++) // move back in sorted order
+      {
+        if (cancel.isCancelled() || ((verify != null)
+          && (verify.getFailure() != null))) // user cancel or fatal error?
+        {
+          break;
+        }
+        if ((local != null) && (folders[i] == false)) // copy file back
+        {
+          target = new File(local, sorted[i].getName()); // local copy
+          if (copyBack(target, sorted[i]) == false)
+            break;                // error message already printed
+          verify.add(sorted[i], target, checksums[i]); // check in background
+        }
+        else
+        {
+          target = childFile(staging, sorted[i].getName()); // where it waits
+          if (moveEntry(target, sorted[i]) == false) // move by renaming
+          {
+            putOutput("Can't rename " + target.getPath() + " as "
+              + sorted[i].getPath());
+            cancel.cancel();
+            break;
+          }
+          if (folders[i])         // moving files doesn't change their stamp
+            setStamp(sorted[i], stamps[i]); // ignore errors
+        }
+        totalMoved ++;            // one more file or subfolder moved
+        if (progressTotal > 0) showProgress(1); // one more entry in place
+      }
+    }
+    finally
+    {
+      if (verify != null)         // wait for last files to be checked
+        failure = verify.finish();
+    }
+    if (failure != null)          // did any copied file fail its check?
+    {
+      putOutput(failure + " (local copy in " + local.getPath() + ")");
+      cancel.cancel();
+    }
+    if (cancel.isCancelled()) return(false); // stop if user cancel or error
+    setStamp(folder, stamp);      // date time stamp, ignore errors
+    totalSorted ++;               // one more subfolder (re)sorted
+    return(true);
+
+  } // end of rotateEntries() method
+
+
+/*
+  rotateFolder() method
+
+  Sort a folder in place, without changing its entry in the parent folder, by
+  moving entries out to the staging folder and then back in sorted order.
+  Entries before the <first> sorted entry are already in the correct position
+  and stay where they are.  After the remaining entries have left, the
+  directory has free slots after the sorted beginning, and the returning
+  entries fill them in the order that we move them.
+
+  With the -m3 option, files are copied out to a local copy folder instead of
+  being renamed, since renaming fails too often on some devices.  The original
+  files are deleted only after every file has a local copy.  Files are copied
+  back one at a time in sorted order, while a second thread reads each file
+  back from the device and compares checksums, then deletes the local copy.
+  Subfolders are still moved by renaming through the staging folder.
+*/
+  void rotateFolder(
+    File folder,                  // folder to be sorted in place
+    File[] sorted,                // sorted contents of <folder>
+    boolean[] folders,            // true for each subfolder in <sorted>
+    int first)                    // index of first entry to be moved
+  {
+    long start;                   // starting time, for event trace
+    boolean success;              // true if folder was sorted
+
+    if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+    start = System.currentTimeMillis();
+    traceEvent("FolderSortStart", folder, null, (sorted.length - first), 0,
+      start, true);
+    success = rotateEntries(folder, sorted, folders, first);
+    traceEvent("FolderSortEnd", folder, null, (sorted.length - first), 0,
+      start, success);            // every start has an end, even after errors
+  }
+
+
+/*
+  saveManifest() method
+
+  After a successful sort, write the folders that we sorted or found unchanged
+  as the manifest for the next run.  The manifest is written under a temporary
+  name and then renamed, so that a crash leaves the old manifest or the new
+  one, never part of a manifest.  Errors are reported, but the sort is still
+  successful.
+*/
+  void saveManifest()
+  {
+    File file;                    // manifest file for given folder
+    Iterator iterator;            // for going through folders
+    Writer output;                // text output to <temp>
+    File temp;                    // manifest while being written
+
+    if ((manifestNew == null) || planFlag || cancel.isCancelled())
+    {
+      manifestNew = manifestOld = null; // keep old manifest, if any
+      return;
+    }
+    file = new File(manifestRoot.getParentFile(), (manifestRoot.getName()
+      + MANIFEST_SUFFIX));
+    temp = new File(file.getPath() + ".tmp");
+    try
+    {
+      output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+        temp), "UTF-8"));
+      try
+      {
+        output.write(MANIFEST_HEADER + "\t" + manifestOrder() + "\n");
+        iterator = manifestNew.values().iterator();
+        while (iterator.hasNext())
+          output.write(iterator.next().toString() + "\n");
+      }
+      finally
+      {
+        output.close();
+      }
+      file.delete();              // ignore errors, checked by rename
+      if (temp.renameTo(file) == false)
+        throw new IOException("can't rename " + temp.getPath());
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't write manifest file " + file.getPath() + ": "
+        + ioe.getMessage());
+      temp.delete();              // ignore errors
+    }
+    manifestNew = manifestOld = null; // don't write twice
+  }
+
+
+/*
+  saveTags() method
+
+  Write the cache of disc and track numbers, if it has changed, under a
+  temporary name that then replaces the old cache.  Errors are reported, but
+  don't stop the sort: tags are read again from the files next time.
+*/
+  void saveTags()
+  {
+    Map.Entry entry;              // one file from cache
+    Iterator iterator;            // for going through cache
+    Writer output;                // text output to <temp>
+    File temp;                    // cache while being written
+    long[] values;                // size, stamp, key for one file
+
+    if ((tagFile == null) || (tagChanged == false) || planFlag)
+      return;
+    temp = new File(tagFile.getPath() + ".tmp");
+    try
+    {
+      output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+        temp), "UTF-8"));
+      try
+      {
+        output.write(TAG_HEADER + "\n");
+        iterator = tagCache.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+          entry = (Map.Entry) iterator.next();
+          values = (long[]) entry.getValue();
+          output.write(values[0] + "\t" + values[1] + "\t" + values[2] + "\t"
+            + entry.getKey() + "\n");
+        }
+      }
+      finally
+      {
+        output.close();
+      }
+      tagFile.delete();           // ignore errors, checked by rename
+      if (temp.renameTo(tagFile) == false)
+        throw new IOException("can't rename " + temp.getPath());
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't write tag cache " + tagFile.getPath() + ": "
+        + ioe.getMessage());
+      temp.delete();              // ignore errors
+    }
+    tagChanged = false;           // don't write twice
+  }
+
+
+/*
+  setCollation() method
+
+  Choose how names are compared: by character (with <caseFlag>), by natural
+  order with numbers by value, or by a java.text.Collator for a locale and
+  strength.  Each engine has its own Collator, since Collators can't be shared
+  between threads.
+*/
+  void setCollation(
+    int mode,                     // COLLATE_* constant for comparing names
+    Locale locale,                // locale for COLLATE_LOCALE, or <null>
+    int strength)                 // Collator strength for COLLATE_LOCALE
+  {
+    collateLocale = (locale != null) ? locale : Locale.getDefault();
+    collateMode = mode;
+    collateStrength = strength;
+    collator = null;              // only for COLLATE_LOCALE
+    if (mode == COLLATE_LOCALE)
+    {
+      collator = Collator.getInstance(collateLocale);
+      collator.setStrength(strength);
+    }
+  }
+
+
+/*
+  setOptions() method
+
+  Copy the user's options into this engine.  Options may be replaced between
+  given folders, but not while a folder is being sorted.
+*/
+  void setOptions(SortFatFolder2Options options)
+  {
+    caseFlag = options.caseFlag;
+    setCollation(options.collateMode, options.collateLocale,
+      options.collateStrength);
+    copyFolder = options.copyFolder;
+    journalMode = options.journalMode;
+    manifestFlag = options.manifestFlag;
+    metricFile = options.metricFile;
+    metricFlag = options.metricFlag;
+    planFile = options.planFile;
+    planFlag = options.planFlag;
+    probeFlag = options.probeFlag;
+    progressFlag = options.progressFlag;
+    recurseFlag = options.recurseFlag;
+    setSortOrder(options.sortOrder);
+    sortSpec = options.sortSpec;
+    stampFlag = options.stampFlag;
+    strategyIndex = options.strategy;
+    if ((tagFile == null) || (tagFile.equals(options.tagFile) == false))
+      tagCache = null;            // read cache again, if any, when needed
+    tagFile = options.tagFile;
+    traceFile = options.traceFile;
+    volumeFlag = options.volumeFlag;
+  }
+
+
+/*
+  setSortOrder() method
+
+  Several global variables must be set to ensure the correct sorting order when
+  folders contain both files and subfolders.
+*/
+  void setSortOrder(int index)
+  {
+    switch (index)
+    {
+      case (ORDER_SUBFIRST):      // put all subfolders before files
+        sortOrderIndex = index;
+        sortGroupFile = 2;
+        sortGroupFolder = 1;
+        break;
+
+      case (ORDER_SUBLAST):       // put subfolders after all files
+        sortOrderIndex = index;
+        sortGroupFile = 1;
+        sortGroupFolder = 2;
+        break;
+
+      case (ORDER_SUBMIXED):      // mix files and subfolders by name
+        sortOrderIndex = index;
+        sortGroupFile = sortGroupFolder = 0;
+        break;
+
+      case (ORDER_TRACKS):        // subfolders first, files by track number
+        sortOrderIndex = index;
+        sortGroupFile = 2;        // plus sort key from readTrackKeys()
+        sortGroupFolder = 1;
+        break;
+
+      default:
+        System.err.println("Error in setSortOrder(): unknown index = "
+          + index);               // should never happen, so write on console
+        break;
+    }
+  } // end of setSortOrder() method
+
+
+/*
+  setStamp() method
+
+  Set the date and time stamp for a file or folder, ignoring errors.  During a
+  dry run, only report what would be done.
+*/
+  void setStamp(File given, long stamp)
+  {
+    long start;                   // starting time of file system call
+
+    if (planFlag)                 // dry run, only report what would be done
+      writePlan(PLAN_STAMP, given.getPath(), String.valueOf(stamp));
+    else
+    {
+      start = System.currentTimeMillis();
+      given.setLastModified(stamp); // date time stamp, ignore errors
+      recordMetric(METRIC_STAMP, start); // time for setting stamp
+    }
+  }
+
+
+/*
+  setStatusMessage() method
+
+  Tell the listener which file or folder we are working on.  There is no status
+  without a listener.
+*/
+  void setStatusMessage(String text)
+  {
+    if (listener != null)         // is anybody listening?
+      listener.setStatusMessage(text); // yes, pass along the status message
+  }
+
+
+/*
+  settleOperation() method
+
+  Create a folder, delete a folder, or move (rename) a file or subfolder.  Some
+  systems need time to finish pending operations on the file directory before
+  they accept the next one, and an operation that fails may succeed if tried
+  again after a short delay.  We start with no delay.  When an operation fails,
+  we try again with a delay that doubles each time (exponential backoff),
+  beginning with WAIT_CREATE, WAIT_DELETE, WAIT_MOVE, or WAIT_RENAME.  The last
+  delay is remembered for the next operation of the same type.  After enough
+  operations succeed in a row, the delay is cut in half, so that we learn the
+  smallest delay that keeps failures rare on the current volume.
+
+  Return true if the operation succeeded, or false if it still fails after
+  SETTLE_RETRIES attempts, or if there is nothing to retry (missing source,
+  folder already exists).  The caller prints any error message.
+*/
+  boolean settleOperation(
+    int index,                    // type of operation, SETTLE_* constant
+    File source,                  // folder to create or delete, file to move
+    File target)                  // new name for moved file, else <null>
+  {
+    int attempt;                  // number of times we have tried
+    long first;                   // starting time of first try, with delays
+    long start;                   // starting time of file system call
+    boolean success;              // true if the operation worked
+
+    if (planFlag)                 // dry run, only report what would be done
+    {
+      writePlan(index, source.getPath(), ((target != null) ? target.getPath()
+        : null));
+      return(true);
+    }
+
+    writeJournal((SETTLE_NAMES[index] + "\t" + source.getPath() + ((target
+      != null) ? ("\t" + target.getPath()) : "")), false); // before we try
+    first = System.currentTimeMillis(); // for event trace
+    for (attempt = 0; ; attempt ++)
+    {
+      waitForSystem(settleDelay[index]); // learned delay for this operation
+      start = System.currentTimeMillis(); // time each try, without delays
+      if (index == SETTLE_CREATE)
+        success = source.mkdir();
+      else if (index == SETTLE_DELETE)
+        success = source.delete();
+      else                        // SETTLE_MOVE or SETTLE_RENAME
+        success = source.renameTo(target);
+      recordMetric(index, start); // SETTLE_* index is also METRIC_* index
+
+      if (success)                // did the operation work?
+      {
+        settleStreak[index] ++;   // one more success in a row
+        if (settleStreak[index] >= SETTLE_STREAK) // time to try less delay?
+        {
+          settleDelay[index] /= 2; // eventually becomes zero
+          settleStreak[index] = 0;
+        }
+        writeJournal("done", false); // operation completed
+        traceEvent(TRACE_NAMES[index], source, target, (attempt + 1), 0,
+          first, true);
+        return(true);
+      }
+
+      settleStreak[index] = 0;    // failures break the streak
+      if (((attempt >= SETTLE_RETRIES) || cancel.isCancelled()) // give up now?
+        || ((index == SETTLE_CREATE) ? source.exists() : (source.exists()
+        == false)))               // can't be fixed by waiting longer
+      {
+        traceEvent(TRACE_NAMES[index], source, target, (attempt + 1), 0,
+          first, false);
+        return(false);
+      }
+      settleRetries[index] ++;    // one more retry for summary
+      settleDelay[index] = Math.min(SETTLE_MAX, Math.max(WAIT_FIRST[index],
+        (settleDelay[index] * 2))); // double delay before trying again
+    }
+  } // end of settleOperation() method
+
+
+/*
+  showProgress() method
+
+  Count entries that have been put in place, and about once per second, measure
+  how fast we are going (an exponential moving average of entries per second)
+  and tell the listener.  The listener decides how to show the percent done and
+  the time left.  When there is no total (the given folder is finished), the
+  listener is told to stop showing progress.
+*/
+  void showProgress(long entries)
+  {
+    long now;                     // current time in ms
+    double sample;                // entries per second since last time
+
+    progressDone += entries;      // count everything, even if not shown
+    if (progressTotal == 0)       // no progress until next given folder?
+    {
+      if (listener != null)
+        listener.showProgress(0, 0, 0.0); // yes, clear any old progress
+      return;
+    }
+    now = System.currentTimeMillis();
+    if ((now - progressLast) < PROGRESS_UPDATE) // too soon to measure rate?
+      return;
+    sample = (progressDone - progressLastDone) * 1000.0 / (now - progressLast);
+    progressRate = (progressRate == 0.0) ? sample : ((progressRate
+      * PROGRESS_DECAY) + (sample * (1.0 - PROGRESS_DECAY)));
+    progressLast = now;
+    progressLastDone = progressDone;
+    if (listener != null)         // some folders are sorted twice
+      listener.showProgress(Math.min(progressDone, progressTotal),
+        progressTotal, progressRate);
+  }
+
+
+/*
+  sortedPrefix() method
+
+  Return the number of entries at the beginning of a folder listing, in the
+  raw order from File.listFiles(), that are the same as the sorted order.  If
+  this is the whole listing, then the folder is already sorted and there is no
+  need to move anything.  A null listing for a protected folder has nothing we
+  can move and counts as sorted.
+*/
+  static int sortedPrefix(File[] raw, File[] sorted)
+  {
+    int i;                        // index variable
+
+    if (raw == null)              // protected folders give a null listing
+      return(sorted.length);      // which sortFileList() makes empty
+    for (i = 0; (i < raw.length) && (i < sorted.length); i ++)
+      if (raw[i] != sorted[i])    // sorting doesn't create new File objects
+        break;
+    return(i);
+  }
+
+
+/*
+  sortFileList() method
+
+  When we ask for a list of files or subfolders in a directory, the list is not
+  likely to be in our preferred order.  Java does not guarantee any particular
+  order, and the observed order is whatever is supplied by the underlying file
+  system (which can be very jumbled for FAT16/FAT32).  We would like the file
+  names to be sorted, and since we recurse on subfolders, we also want the
+  subfolders to appear in order.
+
+  The caller's parameter may be <null> and this may happen if the caller asks
+  File.listFiles() for the contents of a protected system directory.  All calls
+  to listFiles() in this program are wrapped inside a call to us, so we replace
+  a null parameter with an empty array as our result.
+
+  We ask the file system only once per entry if the entry is a subfolder.  The
+  answers are returned with the sorted entries, in the same order, so that the
+  caller doesn't need to ask again.
+*/
+  SortFatFolder2Listing sortFileList(File[] input)
+  {
+    boolean[] folders;            // true for each entry that is a subfolder
+    int i;                        // index variable
+    String[] names;               // file names without the path
+    int[] order;                  // sorted order as indexes into <input>
+    File[] result;                // sorted entries for our result
+    boolean[] resultFolders;      // subfolder flags for our result
+    long start;                   // starting time of file system call
+    int[] tracks;                 // sort keys for files, or <null>
+
+    if (input == null)            // were we given a null pointer?
+    {
+      result = new File[0];       // yes, replace with an empty array
+      resultFolders = new boolean[0];
+    }
+    else if (input.length < 2)    // don't sort lists with zero or one element
+    {
+      result = input;             // just copy input array as result array
+      resultFolders = new boolean[input.length];
+      start = System.currentTimeMillis();
+      if (input.length > 0) resultFolders[0] = realFile(input[0]).isDirectory();
+      recordMetric(METRIC_READ, start); // time for subfolder flag
+    }
+    else
+    {
+      /* Collect the names and the file/folder flags, then let a common method
+      decide the order.  The same method sorts raw directory entries when we
+      work directly on a FAT volume, so both give identical results. */
+
+      folders = new boolean[input.length];
+      names = new String[input.length];
+      for (i = 0; i < input.length; i ++)
+      {
+        start = System.currentTimeMillis();
+        folders[i] = realFile(input[i]).isDirectory(); // files before folders?
+        recordMetric(METRIC_READ, start); // time for subfolder flag
+        names[i] = input[i].getName(); // get the file name without the path
+      }
+      if (sortSpec != null)       // user's keys replace sort order
+        order = sortSpecOrder(input, names, folders);
+      else
+      {
+        tracks = (sortOrderIndex == ORDER_TRACKS) ? readTrackKeys(input,
+          folders) : null;        // disc and track numbers, if wanted
+        order = sortNameOrder(names, folders, tracks, input.length);
+      }
+      result = new File[order.length];
+      resultFolders = new boolean[order.length];
+      for (i = 0; i < order.length; i ++)
+      {
+        result[i] = input[order[i]]; // copy File objects in sorted order
+        resultFolders[i] = folders[order[i]]; // and their subfolder flags
+      }
+    }
+    return(new SortFatFolder2Listing(result, resultFolders));
+                                  // give caller whatever we could find
+
+  } // end of sortFileList() method
+
+
+/*
+  sortGivenFolder() method
+
+  Sort the user's folder, which has already been checked by our caller.  The
+  folder is either sorted in place, or its contents are moved to a new folder
+  that then replaces the user's folder.
+*/
+  void sortGivenFolder(
+    File startFolder,             // user's given folder
+    File startParent,             // parent folder of given folder
+    long stamp)                   // date and time stamp for <startFolder>
+  {
+    File[] raw;                   // unsorted contents of given folder
+    File[] sorted;                // sorted contents of given folder
+    File startTemp;               // temporary then new folder
+
+    if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+    copyLocal = null;             // no local copy folder until we need one
+    stagingFolder = null;         // no staging folder until we need one
+    stagingParent = startParent;  // in same parent folder as user's folder
+
+    /* If the user's folder is already sorted, or if sorting in place needs
+    fewer moves, then leave the folder where it is.  Only entries after the
+    sorted beginning are moved, and then we look at the subfolders. */
+
+    raw = listFolder(startFolder); // no filter, original order
+    sorted = sortFileList(raw).files; // no filter, but sorted
+    if (useInPlace(sorted.length, sortedPrefix(raw, sorted), true))
+    {
+      sortInPlace(startFolder);   // sort folder without moving it
+      removeStagingFolder();      // delete staging folder if we created one
+      return;
+    }
+
+    startTemp = childFile(startParent, ("Temp" + System.currentTimeMillis()));
+    writeJournal(("temp\t" + startTemp.getPath()), true); // before creating
+    if (createFolder(startTemp) == false) // need a new and temporary folder
+    {
+      putOutput("Can't create temporary folder: " + startTemp.getPath());
+      cancel.cancel();
+      return;
+    }
+    putOutput("Temporary folder is: " + startTemp.getPath());
+    if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+
+    /* Call a recursive subroutine to move all files and subfolders from the
+    user's given folder to our new temporary folder. */
+
+    manifestBase = startTemp;     // will be renamed as given folder
+    moveFiles(startFolder, startTemp); // move files and subfolders
+    manifestBase = manifestRoot;
+    removeStagingFolder();        // delete staging folder if we created one
+    if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+
+    /* Delete the folder given by the user, and rename our temporary folder to
+    have the original name. */
+
+    if (deleteFolder(startFolder) == false) // delete original, now empty
+    {
+      putOutput("Can't delete original folder: " + startFolder.getPath());
+      cancel.cancel();
+      return;
+    }
+
+    if (settleOperation(SETTLE_RENAME, startTemp, startFolder) == false)
+                                  // temporary becomes original
+    {
+      putOutput("Can't rename " + startTemp.getPath() + " as "
+        + startFolder.getPath());
+      cancel.cancel();
+      return;
+    }
+
+    setStamp(startFolder, stamp); // date time stamp, ignore errors
+    if (manifestNew != null)      // record from moveFiles() has old stamp
+      recordManifest(startFolder, readStamp(startFolder),
+        (SortFatFolder2Manifest) manifestNew.get("."));
+  } // end of sortGivenFolder() method
+
+
+/*
+  sortIndexes() method
+
+  Sort part of an array of indexes with a merge sort, comparing entries with
+  compareNames().  Short runs use an insertion sort.  The caller gives us a
+  work array the same size as the index array.
+*/
+  static void sortIndexes(
+    int[] indexes,                // indexes to be sorted
+    int[] work,                   // work array, same size as <indexes>
+    int start,                    // first index to sort (inclusive)
+    int end,                      // last index to sort (exclusive)
+    String[] names,               // file names without the path
+    String[] lowers,              // lowercase names, or <null> if strict case
+    int[] groups)                 // sorting group for each name
+  {
+    int i, j, k;                  // index variables
+    int middle;                   // end of first half, start of second half
+    int value;                    // index being inserted
+
+    if ((end - start) <= 12)      // insertion sort for short runs
+    {
+      for (i = start + 1; i < end; i ++)
+      {
+        value = indexes[i];
+        for (j = i; (j > start) && (compareNames(indexes[j - 1], value, names,
+          lowers, groups) > 0); j --)
+        {
+          indexes[j] = indexes[j - 1];
+        }
+        indexes[j] = value;
+      }
+      return;
+    }
+
+    middle = (start + end) >>> 1;
+    sortIndexes(indexes, work, start, middle, names, lowers, groups);
+    sortIndexes(indexes, work, middle, end, names, lowers, groups);
+    if (compareNames(indexes[middle - 1], indexes[middle], names, lowers,
+      groups) <= 0)               // halves already in order?
+    {
+      return;                     // common for folders that are nearly sorted
+    }
+
+    System.arraycopy(indexes, start, work, start, (end - start));
+    i = start;                    // next from first half
+    j = middle;                   // next from second half
+    for (k = start; k < end; k ++)
+    {
+      if ((j >= end) || ((i < middle) && (compareNames(work[i], work[j],
+        names, lowers, groups) <= 0)))
+      {
+        indexes[k] = work[i ++];
+      }
+      else
+        indexes[k] = work[j ++];
+    }
+  } // end of sortIndexes() method
+
+
+/*
+  sortInPlace() method
+
+  Sort a folder without moving the folder itself, so that the order of its
+  parent folder does not change.  Folders that are already sorted are left
+  alone.  Otherwise, we move only the entries after the longest beginning that
+  is already in sorted order, since FAT adds new entries at the end of a
+  directory.  Either way, we continue with any subfolders inside.
+
+  Moving only some entries can fail to sort a folder if FAT puts a returning
+  entry into a free slot (deleted entry) earlier in the directory.  We check
+  the new order, and if necessary, move all entries out and back again.
+
+  Subfolders are sorted depth first, in sorted order, from a stack of folders
+  that are waiting instead of by recursion.  Only File objects for the waiting
+  folders are kept, not their listings.
+
+  With a manifest (-i1 option), a folder whose date and time stamp is the same
+  as when the last run sorted it is not listed at all.  Its subfolders come
+  from the manifest, and each is checked the same way.
+*/
+  void sortInPlace(File folder)
+  {
+    File[] check;                 // contents of <folder> after sorting
+    int first;                    // number of entries already in position
+    boolean[] folders;            // true for each subfolder in <sorted>
+    int i;                        // index variable
+    SortFatFolder2Listing listing; // sorted contents with subfolder flags
+    ArrayList pending;            // folders waiting to be sorted, last first
+    File[] raw;                   // unsorted contents of <folder>
+    SortFatFolder2Manifest record; // folder from last run, or <null>
+    File[] sorted;                // sorted contents of <folder>
+    long stamp;                   // date and time stamp for <folder>
+
+    pending = new ArrayList();
+    pending.add(folder);
+    while (pending.isEmpty() == false) // until all subfolders are done
+    {
+      if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+      folder = (File) pending.remove(pending.size() - 1);
+      setStatusMessage(folder.getPath()); // running status is path name
+      stamp = (manifestOld == null) ? 0 : readStamp(folder); // if manifest
+      record = (manifestOld == null) ? null : unchangedFolder(folder, stamp);
+      if (record != null)         // unchanged since last run, don't list
+      {
+        totalAlready ++;          // one more folder already sorted
+        totalUnchanged ++;        // and we know without listing it
+        if (progressTotal > 0) showProgress(record.count); // all in place
+        manifestNew.put(record.path, record); // still true for next run
+        for (i = record.subfolders.length - 1; recurseFlag && (i >= 0); i --)
+          pending.add(childFile(folder, record.subfolders[i]));
+        continue;
+      }
+      raw = listFolder(folder);   // no filter, original order
+      listing = sortFileList(raw); // no filter, but sorted
+      sorted = listing.files;
+      folders = listing.folders;  // which entries are subfolders
+      first = sortedPrefix(raw, sorted); // entries already in sorted order
+      if (progressTotal > 0)      // entries that stay where they are
+        showProgress(first);
+      if (first == sorted.length) // is this folder already sorted?
+        totalAlready ++;          // one more folder already sorted
+      else
+      {
+        rotateFolder(folder, sorted, folders, first); // move out and back
+        if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+        if ((first > 0) && (planFlag == false)) // some entries left in place?
+        {
+          check = listFolder(folder); // no filter, original order
+          if (sortedPrefix(check, sortFileList(check).files) < sorted.length)
+          {
+            putOutput("Free slots out of order, moving all entries: "
+              + folder.getPath());
+            totalSorted --;       // don't count this folder twice
+            rotateFolder(folder, sorted, folders, 0); // move all out and back
+          }
+        }
+        if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+        if (manifestOld != null)  // stamp may not have been restored
+          stamp = readStamp(folder);
+      }
+      if (manifestOld != null)    // remember folder for next run
+        recordManifest(folder, stamp, manifestRecord(sorted, folders));
+
+      /* Subfolders may need sorting.  Push them in reverse order, so that the
+      first subfolder is sorted next. */
+
+      for (i = sorted.length - 1; recurseFlag && (i >= 0); i --)
+        if (folders[i])           // ignore files, only want subfolders
+          pending.add(childFile(folder, sorted[i].getName())); // current path
+    }
+  }
+
+
+/*
+  sortNameOrder() method
+
+  Given a list of file names and a flag for each name saying if it is a
+  subfolder, return the sorted order as an array of indexes into the caller's
+  list.  Only the first <count> elements are used.
+
+  Names are sorted as files or folders, then in lowercase to ignore differences
+  in uppercase versus lowercase, then in the original form for systems where
+  case is distinct.  This is the same order as a sorting key made from a group
+  prefix, the lowercase name, a space, and the original name.  We don't create
+  those keys: the group numbers and lowercase names are kept in arrays that
+  parallel the caller's names, and compareNames() acts as if the keys existed.
+  The indexes are sorted with a merge sort on a primitive array, so there are
+  no objects for each entry beyond the lowercase names, and those are shared
+  with the original names when there are no uppercase letters.  Lowercase is
+  always by English rules, so that a Turkish system doesn't change "I" to a
+  dotless "i" and put names in a different order than other systems.
+
+  Natural order (-c2) and Collator order (-c3) replace the lowercase names
+  with keys made once for each name: naturalKey() for natural order, or the
+  bytes of a CollationKey, one per character.  Either way, comparing keys as
+  strings gives the right order, and compareNames() doesn't need to know the
+  difference or create objects while sorting.
+
+  When files are sorted by disc and track number (-f3 option), the caller
+  gives us a sort key for each file, which is added to the group for files, so
+  that names are only compared for the same disc and track.
+*/
+  int[] sortNameOrder(
+    String[] names,               // file names without the path
+    boolean[] folders,            // true if name is a subfolder
+    int[] tracks,                 // sort keys for files, or <null>
+    int count)                    // number of names to sort
+  {
+    int[] groups;                 // sorting group for each name
+    int i;                        // index variable
+    String[] lowers;              // lowercase names, or <null> if strict case
+    int[] result;                 // our result
+
+    groups = new int[count];
+    lowers = (caseFlag && (collateMode == COLLATE_NAME)) ? null
+      : new String[count];
+    result = new int[count];
+    for (i = 0; i < count; i ++)
+    {
+      groups[i] = folders[i] ? sortGroupFolder : (sortGroupFile + ((tracks
+        != null) ? tracks[i] : 0));
+      if (lowers != null)         // do we ignore uppercase versus lowercase?
+        lowers[i] = nameKey(names[i]); // or natural, or collator key
+      result[i] = i;              // start with original order
+    }
+    if (count > 1)                // only sort if there is something to sort
+      sortIndexes(result, new int[count], 0, count, names, lowers, groups);
+    return(result);
+
+  } // end of sortNameOrder() method
+
+
+/*
+  sortSpecOrder() method
+
+  Return the sorted order of a folder listing, as indexes into the listing,
+  for the sorting specification from the -k(spec) option.  Only the attributes
+  named in the specification are read, once for each entry, and then each
+  entry gets one key from SortFatFolder2Spec.encode().  The keys take the
+  place of lowercase names in sortIndexes(), with groups that are all the same,
+  so the keys alone decide the order and names only break ties.
+*/
+  int[] sortSpecOrder(
+    File[] input,                 // unsorted contents of a folder
+    String[] names,               // file names without the path
+    boolean[] folders)            // true for each subfolder in <input>
+  {
+    long date;                    // date and time stamp for one entry
+    boolean dateFlag;             // true if we read date and time stamps
+    int i;                        // index variable
+    String[] keys;                // sorting key for each entry
+    boolean nameFlag;             // true if we need name keys
+    File real;                    // where entry really is, for dry run
+    int[] result;                 // our result
+    long size;                    // size in bytes for one entry
+    boolean sizeFlag;             // true if we read file sizes
+    long start;                   // starting time of file system call
+    int[] tracks;                 // sort keys from tags, or <null>
+
+    dateFlag = sortSpec.needs(SortFatFolder2Spec.FIELD_DATE);
+    nameFlag = sortSpec.needs(SortFatFolder2Spec.FIELD_NAME);
+    sizeFlag = sortSpec.needs(SortFatFolder2Spec.FIELD_SIZE);
+    tracks = sortSpec.needs(SortFatFolder2Spec.FIELD_TRACK) ? readTrackKeys(
+      input, folders) : null;     // disc and track numbers, if wanted
+    keys = new String[input.length];
+    result = new int[input.length];
+    for (i = 0; i < input.length; i ++)
+    {
+      date = size = 0;            // not needed unless user asks
+      if (dateFlag || (sizeFlag && (folders[i] == false)))
+      {
+        real = realFile(input[i]);
+        start = System.currentTimeMillis();
+        if (dateFlag) date = real.lastModified();
+        if (sizeFlag && (folders[i] == false)) size = real.length();
+        recordMetric(METRIC_READ, start); // time for date, size
+      }
+      keys[i] = sortSpec.encode((nameFlag ? nameKey(names[i]) : null),
+        names[i], folders[i], size, date, ((tracks != null) ? tracks[i] : 0));
+      result[i] = i;              // start with original order
+    }
+    sortIndexes(result, new int[input.length], 0, input.length, names, keys,
+      new int[input.length]);     // all in the same group
+    return(result);
+  }
+
+
+/*
+  sortSubfolders() method
+
+  Given a folder whose entries are already in sorted order, sort each of the
+  subfolders in place, if the user wants subfolders.  The caller's list of
+  entries may have come from a different path before the folder was moved, so
+  we only use the names.
+*/
+  void sortSubfolders(
+    File folder,                  // folder whose subfolders are sorted
+    File[] sorted,                // sorted contents of <folder>
+    boolean[] folders)            // true for each subfolder in <sorted>
+  {
+    int i;                        // index variable
+
+    if (recurseFlag == false) return; // does user want subfolders?
+    for (i = 0; i < sorted.length; i ++)
+    {
+      if (cancel.isCancelled()) return; // stop if user cancel or fatal error
+      if (folders[i])             // ignore files, only want subfolders
+        sortInPlace(childFile(folder, sorted[i].getName())); // current path
+    }
+  }
+
+
+/*
+  traceEvent() method
+
+  Append one event to the trace file given with the -e(file) option.  Events
+  are tab-separated lines: the starting time in milliseconds since 1970, the
+  duration in milliseconds, the event name, "ok" or "failed", a count (entries
+  in a folder, tries for an operation, or milliseconds requested for a wait),
+  the number of bytes copied (zero for renaming, which moves no data), and then
+  the path and new name, if any.  Callers pass only values they already have,
+  and we make no file system calls of our own, so tracing doesn't add to the
+  time of the operations being traced.  Without a trace file, this method
+  returns at once and costs nearly nothing.
+
+  The trace is flushed after a batch of lines, and after any failed event, so
+  that a crash loses at most a few events, and never the failure itself.  Trace
+  errors are reported once and then tracing stops; they don't stop the sort.
+*/
+  void traceEvent(
+    String name,                  // event name, such as "EntryMove"
+    File path,                    // file or folder, or <null> for none
+    File target,                  // new name for moved entry, else <null>
+    long count,                   // entries, tries, or requested delay
+    long bytes,                   // bytes copied, or zero
+    long start,                   // starting time of event, in ms
+    boolean success)              // true if event completed normally
+  {
+    StringBuffer buffer;          // faster than String for multiple appends
+    long end;                     // ending time of event, in ms
+    boolean newFlag;              // true if trace file is new or empty
+
+    if (traceFile == null)        // is anybody listening?
+      return;
+    end = System.currentTimeMillis();
+    try
+    {
+      if (traceWriter == null)    // open (append) trace on first event
+      {
+        newFlag = traceFile.length() == 0; // zero if file doesn't exist
+        traceWriter = new BufferedWriter(new OutputStreamWriter(
+          new FileOutputStream(traceFile.getPath(), true), "UTF-8"));
+        traceCount = 0;           // nothing written since last flush
+        if (newFlag)              // column names only once per file
+        {
+          traceWriter.write(
+            "start_ms\tduration_ms\tevent\toutcome\tcount\tbytes\tpath\ttarget\n");
+        }
+      }
+      buffer = new StringBuffer();
+      buffer.append(start);
+      buffer.append('\t');
+      buffer.append(end - start);
+      buffer.append('\t');
+      buffer.append(name);
+      buffer.append(success ? "\tok\t" : "\tfailed\t");
+      buffer.append(count);
+      buffer.append('\t');
+      buffer.append(bytes);
+      buffer.append('\t');
+      if (path != null) buffer.append(path.getPath());
+      buffer.append('\t');
+      if (target != null) buffer.append(target.getPath());
+      buffer.append('\n');
+      traceWriter.write(buffer.toString());
+      traceCount ++;              // one more line since last flush
+      if ((success == false) || (traceCount >= TRACE_BATCH))
+      {
+        traceWriter.flush();      // failures matter most after a crash
+        traceCount = 0;
+      }
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't write event trace " + traceFile.getPath() + ": "
+        + ioe.getMessage());
+      traceFile = null;           // stop tracing, but keep sorting
+      traceWriter = null;
+    }
+  }
+
+
+/*
+  unchangedFolder() method
+
+  Return the folder's entry in the manifest from the last run, if its date and
+  time stamp hasn't changed since then, or <null> if the folder must be listed.
+  This trusts the system to change a folder's stamp whenever an entry is added,
+  removed, or renamed.  Linux does that for FAT folders, but Windows doesn't,
+  and programs that copy or sort folders (this one included) set old stamps
+  again on purpose, so an unchanged stamp doesn't prove that the entries are
+  unchanged.  Folders are only skipped with <stampFlag>: by default on
+  systems other than Windows, or anywhere with -i2.
+*/
+  SortFatFolder2Manifest unchangedFolder(
+    File folder,                  // folder to be checked
+    long stamp)                   // current date and time stamp for <folder>
+  {
+    String path;                  // relative path of <folder>
+    SortFatFolder2Manifest record; // folder from last run, or <null>
+
+    path = manifestPath(folder);
+    if ((manifestOld == null) || (stampFlag == false) || (path == null)
+      || (stamp == 0))
+      return(null);
+    record = (SortFatFolder2Manifest) manifestOld.get(path);
+    if ((record == null) || (record.stamp != stamp))
+      return(null);
+    return(record);
+  }
+
+
+/*
+  useInPlace() method
+
+  Decide if a folder should be sorted in place, which moves entries out to a
+  staging folder and back again, or by moving entries once to a new folder that
+  replaces the original folder.  Sorting in place keeps the folder's position
+  in its parent folder, and only needs to move the entries after the sorted
+  beginning, but each of those entries is moved twice.
+
+  Our cost model counts the file system operations that each method needs.
+  Creating or deleting a folder costs the same as moving an entry.  When the
+  costs are equal, we prefer to sort in place.  The user may choose a method
+  with the -m option, and copying files (-m3) always sorts in place.
+*/
+  boolean useInPlace(
+    int count,                    // number of entries in folder
+    int first,                    // number of entries already in position
+    boolean topFlag)              // true for user's folder, false if subfolder
+  {
+    long inPlace;                 // operations to sort in place
+    long rename;                  // operations to sort in new folder
+
+    if (first == count)           // already sorted, nothing to move
+      return(true);
+    else if ((strategyIndex == STRATEGY_COPY)
+      || (strategyIndex == STRATEGY_INPLACE)) // user wants in place
+    {
+      return(true);
+    }
+    else if (strategyIndex == STRATEGY_RENAME) // user wants new folder
+      return(false);
+
+    inPlace = 2 * (count - first); // move unsorted entries out and back
+    if (topFlag == false) inPlace ++; // subfolder is moved once as a unit
+    if (stagingFolder == null) inPlace += 2; // create, delete staging folder
+    rename = count + 2;           // move all entries, create and delete folder
+    if (topFlag) rename ++;       // rename new folder as user's folder
+    return(inPlace <= rename);
+  }
+
+
+/*
+  waitForSystem() method
+
+  Wait for a short period of time, so the system can finish pending operations
+  on the file directory, such as after deleting the original main folder and
+  before renaming the temporary copy to be the main folder.  This shouldn't be
+  necessary but sometimes helps (not always).
+
+  The sleep() method is not precise, and often results in a longer delay than
+  what was requested.  For example, a request for 10 ms produces a delay of
+  about 15 ms in Java 1.4 to 7 on Windows XP/7.  Some smaller values can be
+  more accurate in other situations, but for this program, values below 10 ms
+  have less of an effect on performance than operating system overhead.
+
+  Delays are chosen by settleOperation() and are zero on well-behaved systems.
+  Any need for longer delays indicates unusual hardware or a problem with
+  optional software (i.e., anti-virus) being called when files are moved or
+  folders are created and deleted.  Temporarily turn off your anti-virus and
+  try again.  Time spent waiting is counted separately from the time for file
+  system calls; see printMetrics().
+*/
+  void waitForSystem(
+    int delay)                    // wait time in milliseconds (ms)
+  {
+    long start;                   // starting time of wait
+
+    if (delay <= 0)               // nothing to do?
+      return;
+    start = System.currentTimeMillis();
+    try { Thread.sleep(delay); }
+    catch (InterruptedException ie) { /* do nothing */ }
+    metricWaitCount ++;           // time waiting isn't time for the system
+    metricWaitTotal += System.currentTimeMillis() - start;
+    traceEvent("SettleWait", null, null, delay, 0, start, true);
+  }
+
+
+/*
+  writeJournal() method
+
+  Add one line to the write-ahead journal, if there is one.  The journal is
+  flushed to disk when the caller asks, or after a batch of lines.
+*/
+  void writeJournal(
+    String line,                  // text to be written, without newline
+    boolean flush)                // true if line must be on disk now
+  {
+    if (journalWriter == null)    // do we have an open journal?
+      return;
+    try
+    {
+      journalWriter.write(line);
+      journalWriter.write('\n');
+      journalCount ++;            // one more line since last flush
+      if (flush || (journalCount >= JOURNAL_BATCH))
+      {
+        journalWriter.flush();    // write buffer to file
+        journalStream.getFD().sync(); // make sure it's on disk
+        journalCount = 0;
+      }
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't write journal file " + journalFile.getPath() + ": "
+        + ioe.getMessage());
+      cancel.cancel();            // don't continue without the journal
+      try { journalWriter.close(); }
+      catch (IOException ioe2) { /* ignore errors */ }
+      journalFile = null;         // nothing more to write or delete
+      journalStream = null;
+      journalWriter = null;
+    }
+  }
+
+
+/*
+  writeMetrics() method
+
+  Write the timing for file system calls as comma-separated values (CSV), one
+  line for each type of call, plus one line for waiting.  The histogram columns
+  are named for the upper limit of each bucket in milliseconds.
+*/
+  void writeMetrics()
+  {
+    StringBuffer buffer;          // faster than String for multiple appends
+    int i, k;                     // index variables
+    PrintWriter output;           // CSV output file
+
+    try
+    {
+      output = new PrintWriter(new BufferedWriter(new FileWriter(metricFile)));
+      buffer = new StringBuffer();
+      buffer.append("operation,calls,total_ms,max_ms");
+      for (k = 0; k < METRIC_BUCKETS; k ++)
+      {
+        buffer.append(",lt_");
+        buffer.append(1L << k);   // upper limit of bucket in milliseconds
+        buffer.append("_ms");
+      }
+      output.println(buffer.toString());
+      for (i = 0; i < METRIC_NAMES.length; i ++)
+      {
+        buffer.setLength(0);
+        buffer.append(METRIC_NAMES[i]);
+        buffer.append(",");
+        buffer.append(metricCounts[i]);
+        buffer.append(",");
+        buffer.append(metricTotals[i]);
+        buffer.append(",");
+        buffer.append(metricMax[i]);
+        for (k = 0; k < METRIC_BUCKETS; k ++)
+        {
+          buffer.append(",");
+          buffer.append(metricBuckets[i][k]);
+        }
+        output.println(buffer.toString());
+      }
+      output.println("wait," + metricWaitCount + "," + metricWaitTotal + ",");
+      output.close();
+      if (output.checkError())    // PrintWriter hides exceptions
+        throw new IOException("write failed");
+      putOutput("Timing written to: " + metricFile.getPath());
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't write timing file " + metricFile.getPath() + ": "
+        + ioe.getMessage());
+    }
+  }
+
+
+/*
+  writePlan() method
+
+  During a dry run, write one operation that would have been done, and count
+  it for the summary.  Plan lines are tab-separated: the operation name, the
+  file or folder, and then the new name, the date and time stamp, or the number
+  of directory entries in a raw FAT folder.  The plan goes into its own file
+  (-n(file) option, or a new file in the system's temporary folder), not with
+  the other output, and is streamed through a small buffer, so planning a very
+  large tree keeps only a few lines in memory.  The file is created with the
+  first operation.  Since a plan that can't be written is useless, errors stop
+  the dry run.
+*/
+  void writePlan(
+    int index,                    // type of operation, PLAN_NAMES index
+    String path,                  // file or folder being changed
+    String detail)                // new name or date and time stamp, or null
+  {
+    planCounts[index] ++;         // one more operation of this type
+    if (cancel.isCancelled()) return; // plan already failed, or user cancel
+    try
+    {
+      if (planWriter == null)     // create plan file on first operation
+      {
+        planOutput = (planFile != null) ? planFile : File.createTempFile(
+          "SortFatFolder2Plan", ".txt"); // temporary folder if no file given
+        planWriter = new BufferedWriter(new OutputStreamWriter(
+          new FileOutputStream(planOutput), "UTF-8"));
+        putOutput("Dry run plan is being written to: " + planOutput.getPath());
+      }
+      planWriter.write(PLAN_NAMES[index] + "\t" + path
+        + ((detail != null) ? ("\t" + detail) : "") + "\n");
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't write dry run plan "
+        + ((planOutput != null) ? planOutput.getPath() : "file") + ": "
+        + ioe.getMessage());
+      cancel.cancel();            // stop the dry run
+      if (planWriter != null)     // release file, ignoring more errors
+      {
+        try { planWriter.close(); } catch (IOException ioe2) { }
+        planWriter = null;
+      }
+    }
+  }
+
+} // end of SortFatFolder2Engine class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  SortFatFolder2Cursor class
+
+  One folder being moved by the moveFiles() method: where it came from, where
+  it is going, its sorted contents, and the next entry to be moved.  Entries
+  are set to <null> once they have been moved, so that they can be released.
+*/
+
+class SortFatFolder2Cursor
+{
+  File[] contents;                // sorted contents of <oldFolder>
+  boolean[] folders;              // true for each subfolder in <contents>
+  int index;                      // next entry in <contents> to be moved
+  File newFolder;                 // new folder receiving entries
+  File oldFolder;                 // original folder being emptied
+  SortFatFolder2Manifest record;  // for manifest when done, or <null>
+  long stamp;                     // date and time stamp for <newFolder>
+  long start;                     // starting time, for event trace
+
+  public SortFatFolder2Cursor(
+    File oldFolder,               // original folder being emptied
+    File newFolder,               // new folder receiving entries
+    File[] contents,              // sorted contents of <oldFolder>
+    boolean[] folders,            // true for each subfolder in <contents>
+    long stamp)                   // date and time stamp for <newFolder>
+  {
+    this.contents = contents;
+    this.folders = folders;
+    this.index = 0;               // nothing moved yet
+    this.newFolder = newFolder;
+    this.oldFolder = oldFolder;
+    this.record = null;           // set by moveFiles() if there is a manifest
+    this.stamp = stamp;
+    this.start = System.currentTimeMillis();
+  }
+
+} // end of SortFatFolder2Cursor class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  SortFatFolder2Manifest class
+
+  One folder in the manifest of folders sorted by the last run: its path from
+  the given folder, date and time stamp, number of entries, a hash of the names
+  in sorted order, and the names of its subfolders.  Each folder is one
+  tab-separated line in the manifest file; FAT names can't contain tabs.
+*/
+
+class SortFatFolder2Manifest
+{
+  int count;                      // number of files and subfolders
+  long hash;                      // hash of names in sorted order
+  String path;                    // relative path, or "." for given folder
+  long stamp;                     // date and time stamp for folder
+  String[] subfolders;            // names of subfolders in sorted order
+
+  public SortFatFolder2Manifest(
+    String path,                  // relative path, or "." for given folder
+    long stamp,                   // date and time stamp for folder
+    int count,                    // number of files and subfolders
+    long hash,                    // hash of names in sorted order
+    String[] subfolders)          // names of subfolders in sorted order
+  {
+    this.count = count;
+    this.hash = hash;
+    this.path = path;
+    this.stamp = stamp;
+    this.subfolders = subfolders;
+  }
+
+  public static SortFatFolder2Manifest parse(String line)
+  {
+    String[] fields;              // tab-separated fields from <line>
+    String[] subfolders;          // fields after the path
+
+    fields = line.split("\t", -1);
+    if ((fields.length < 5) || (fields[0].equals("folder") == false))
+      return(null);
+    subfolders = new String[fields.length - 5];
+    System.arraycopy(fields, 5, subfolders, 0, subfolders.length);
+    try
+    {
+      return(new SortFatFolder2Manifest(fields[4], Long.parseLong(fields[1]),
+        Integer.parseInt(fields[2]), Long.parseLong(fields[3]), subfolders));
+    }
+    catch (NumberFormatException nfe)
+    {
+      return(null);               // damaged line, folder will be listed
+    }
+  }
+
+  public String toString()
+  {
+    StringBuffer buffer;          // faster than String for multiple appends
+    int i;                        // index variable
+
+    buffer = new StringBuffer();
+    buffer.append("folder\t");
+    buffer.append(stamp);
+    buffer.append('\t');
+    buffer.append(count);
+    buffer.append('\t');
+    buffer.append(hash);
+    buffer.append('\t');
+    buffer.append(path);
+    for (i = 0; i < subfolders.length; i ++)
+    {
+      buffer.append('\t');
+      buffer.append(subfolders[i]);
+    }
+    return(buffer.toString());
+  }
+
+} // end of SortFatFolder2Manifest class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  SortFatFolder2Tags class
+
+  Read the disc and track numbers from the tags of several audio files, on any
+  number of threads, each taking the next file that hasn't been read.  Only
+  the tag headers are read, in small pieces at known positions, never a whole
+  file:
+
+   1. MP3 files have an ID3 version 2 tag at the beginning, with TRCK and TPOS
+      frames ("3/12"), or an ID3 version 1.1 tag in the last 128 bytes with
+      only a track number.
+
+   2. FLAC files have a VORBIS_COMMENT block among the metadata blocks at the
+      beginning, and Ogg Vorbis and Opus files have the same comments in their
+      second packet, with TRACKNUMBER and DISCNUMBER fields.
+
+   3. MP4 and M4A files have "trkn" and "disk" atoms inside moov/udta/meta/ilst,
+      and the moov atom may be at the end of the file, after the audio.
+
+  A file without a track number, or that can't be read, gets TAG_NONE and is
+  sorted by name after the files with track numbers.  Files aren't mapped into
+  memory, because on Windows, a mapped file can't be renamed until the garbage
+  collector releases the mapping, and we rename files right after reading.
+*/
+
+class SortFatFolder2Tags implements Runnable
+{
+  /* constants */
+
+  static final int COMMENT_MAX = 0x10000; // bytes of Vorbis comments we read
+  static final int FRAME_MAX = 64; // bytes of ID3 text frame we read
+
+  /* instance variables */
+
+  int count;                      // number of files to be read
+  File[] files;                   // folder listing from caller
+  int[] indexes;                  // indexes into <files> of files to be read
+  int[] keys;                     // sort key for each file to be read
+  int next;                       // next file to be read, index into <indexes>
+
+  public SortFatFolder2Tags(
+    File[] files,                 // folder listing from caller
+    int[] indexes,                // indexes into <files> of files to be read
+    int count)                    // number of files to be read
+  {
+    this.count = count;
+    this.files = files;
+    this.indexes = indexes;
+    this.keys = new int[count];
+    this.next = 0;                // nothing read yet
+  }
+
+  synchronized int nextIndex()
+  {
+    return((next < count) ? next ++ : -1);
+  }
+
+  public void run()
+  {
+    int i;                        // index into <indexes> and <keys>
+
+    while ((i = nextIndex()) >= 0)
+      keys[i] = readKey(files[indexes[i]]);
+  }
+
+/*
+  findAtom() method
+
+  Look for an MP4 atom (box) with the given type between two positions in a
+  file, and return the positions of its contents, or <null> if not found.
+*/
+  static long[] findAtom(
+    FileChannel channel,          // input from file
+    long start,                   // position of first atom
+    long end,                     // position after last atom
+    String type)                  // four-character atom type
+    throws IOException
+  {
+    byte[] header;                // atom header: size and type
+    long size;                    // size of atom, including header
+    int skip;                     // size of atom header
+
+    while ((start + 8) <= end)
+    {
+      header = readBytes(channel, start, 16);
+      if (header.length < 8) break; // end of file
+      size = getInt(header, 0) & 0xFFFFFFFFL;
+      skip = 8;
+      if ((size == 1) && (header.length == 16)) // 64-bit size follows type
+      {
+        size = ((long) getInt(header, 8) << 32)
+          | (getInt(header, 12) & 0xFFFFFFFFL);
+        skip = 16;
+      }
+      else if (size == 0)         // last atom, goes to end
+        size = end - start;
+      if (size < skip) break;     // damaged atom
+      if (new String(header, 4, 4, "ISO-8859-1").equals(type))
+        return(new long[] {(start + skip), Math.min(end, (start + size))});
+      start += size;
+    }
+    return(null);
+  }
+
+/*
+  getInt() method
+
+  Return a big-endian 32-bit integer from a byte array.
+*/
+  static int getInt(byte[] data, int offset)
+  {
+    return(((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+      | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF));
+  }
+
+/*
+  getIntLittle() method
+
+  Return a little-endian 32-bit integer from a byte array, as used by Vorbis
+  comments, or -1 if the array is too short.
+*/
+  static int getIntLittle(byte[] data, int offset)
+  {
+    if ((offset < 0) || (offset > (data.length - 4))) // can't overflow
+      return(-1);
+    return((data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8)
+      | ((data[offset + 2] & 0xFF) << 16) | ((data[offset + 3] & 0xFF) << 24));
+  }
+
+/*
+  indexOf() method
+
+  Return the position of some ASCII text in a byte array, or -1 if not found.
+*/
+  static int indexOf(byte[] data, String text)
+  {
+    int i, k;                     // index variables
+
+    for (i = 0; (i + text.length()) <= data.length; i ++)
+    {
+      for (k = 0; (k < text.length()) && (data[i + k] == text.charAt(k)); k ++)
+        ;                         // compare one character at a time
+      if (k == text.length())
+        return(i);
+    }
+    return(-1);
+  }
+
+/*
+  makeKey() method
+
+  Return a sort key from a disc number (zero if none) and track number, or
+  TAG_NONE if there is no track number.  Keys are less than TAG_NONE.
+*/
+  static int makeKey(int disc, int track)
+  {
+    if (track <= 0)               // disc number alone doesn't give an order
+      return(SortFatFolder2Engine.TAG_NONE);
+    return((Math.max(0, Math.min(disc, 0xFF)) << 16) | Math.min(track,
+      0xFFFF));
+  }
+
+/*
+  parseNumber() method
+
+  Return the number at the beginning of a tag value, such as 3 from "03/12",
+  or -1 if there is no number.
+*/
+  static int parseNumber(String text)
+  {
+    int i;                        // index variable
+    int result;                   // our result
+
+    result = -1;                  // no digits found yet
+    for (i = 0; i < text.length(); i ++)
+    {
+      if ((text.charAt(i) >= '0') && (text.charAt(i) <= '9'))
+        result = (Math.max(result, 0) * 10) + (text.charAt(i) - '0');
+      else if ((result >= 0) || (text.charAt(i) > ' ')) // end of number
+        break;                    // allow leading spaces and nulls only
+      if (result > 0xFFFF) break; // not a reasonable number
+    }
+    return(result);
+  }
+
+/*
+  readBytes() method
+
+  Read some bytes from a position in a file.  The result is shorter than asked
+  if the file ends first.
+*/
+  static byte[] readBytes(
+    FileChannel channel,          // input from file
+    long position,                // where to start reading
+    int length)                   // number of bytes wanted
+    throws IOException
+  {
+    ByteBuffer buffer;            // bytes read so far
+    byte[] result;                // our result
+
+    buffer = ByteBuffer.allocate(Math.max(0, length));
+    while (buffer.hasRemaining() && (channel.read(buffer, (position
+      + buffer.position())) > 0))
+    {
+      /* keep reading until buffer is full or end of file */
+    }
+    if (buffer.position() == buffer.capacity())
+      return(buffer.array());
+    result = new byte[buffer.position()];
+    System.arraycopy(buffer.array(), 0, result, 0, result.length);
+    return(result);
+  }
+
+/*
+  readComments() method
+
+  Return the disc and track numbers from Vorbis comments, starting at the
+  vendor string, as an array with the disc then the track (-1 if missing).
+  Lengths come from the file and may be anything, so they are checked against
+  the bytes that are left, without adding to them, which could overflow.
+*/
+  static int[] readComments(byte[] data, int offset)
+    throws IOException
+  {
+    String comment;               // one "NAME=value" comment
+    int i;                        // index variable
+    int length;                   // length of one string in bytes
+    int total;                    // number of comments
+    int[] result;                 // our result
+
+    result = new int[] {-1, -1};
+    length = getIntLittle(data, offset); // vendor string
+    if ((length < 0) || (length > (data.length - offset - 4)))
+      return(result);             // damaged, or longer than what we read
+    offset += 4 + length;
+    total = getIntLittle(data, offset);
+    offset += 4;
+    for (i = 0; i < total; i ++)
+    {
+      length = getIntLittle(data, offset);
+      if ((length < 0) || (length > (data.length - offset - 4))) break;
+      comment = new String(data, (offset + 4), length, "UTF-8").toUpperCase(
+        Locale.ENGLISH);          // field names are ASCII in any locale
+      if (comment.startsWith("DISCNUMBER="))
+        result[0] = parseNumber(comment.substring(11));
+      else if (comment.startsWith("TRACKNUMBER="))
+        result[1] = parseNumber(comment.substring(12));
+      offset += 4 + length;
+    }
+    return(result);
+  }
+
+/*
+  readFlac() method
+
+  Return the sort key from the VORBIS_COMMENT metadata block of a FLAC file.
+*/
+  static int readFlac(FileChannel channel)
+    throws IOException
+  {
+    byte[] header;                // metadata block header
+    int length;                   // length of block after header
+    int[] numbers;                // disc and track numbers
+    long position;                // position of next block header
+
+    position = 4;                 // after "fLaC"
+    while (true)
+    {
+      header = readBytes(channel, position, 4);
+      if (header.length < 4) break; // end of file
+      length = getInt(header, 0) & 0xFFFFFF;
+      if ((header[0] & 0x7F) == 4) // VORBIS_COMMENT block
+      {
+        numbers = readComments(readBytes(channel, (position + 4),
+          Math.min(length, COMMENT_MAX)), 0);
+        return(makeKey(numbers[0], numbers[1]));
+      }
+      if ((header[0] & 0x80) != 0) break; // last metadata block
+      position += 4 + length;
+    }
+    return(SortFatFolder2Engine.TAG_NONE);
+  }
+
+/*
+  readId3() method
+
+  Return the sort key from an ID3 version 2 tag at the beginning of a file.
+  Versions 2.2, 2.3, and 2.4 have different frame headers.
+*/
+  static int readId3(FileChannel channel, byte[] start)
+    throws IOException
+  {
+    int disc, track;              // numbers found so far, or -1
+    long end;                     // position after tag
+    byte[] header;                // frame header
+    int headSize;                 // size of frame header
+    String name;                  // frame name (identifier)
+    long position;                // position of next frame header
+    int size;                     // size of frame after header
+    int version;                  // major version: 2, 3, or 4
+
+    version = start[3];
+    end = 10 + syncSafe(start, 6);
+    position = 10;
+    headSize = (version == 2) ? 6 : 10;
+    if (((start[5] & 0x40) != 0) && (version >= 3)) // skip extended header
+    {
+      header = readBytes(channel, position, 4);
+      if (header.length < 4) return(SortFatFolder2Engine.TAG_NONE);
+      position += (version == 3) ? (4 + getInt(header, 0)) : syncSafe(header,
+        0);
+    }
+    disc = track = -1;
+    while (((position + headSize) <= end) && ((disc < 0) || (track < 0)))
+    {
+      header = readBytes(channel, position, headSize);
+      if ((header.length < headSize) || (header[0] == 0)) break; // padding
+      if (version == 2)
+      {
+        name = new String(header, 0, 3, "ISO-8859-1");
+        size = getInt(header, 2) & 0xFFFFFF;
+      }
+      else
+      {
+        name = new String(header, 0, 4, "ISO-8859-1");
+        size = (version == 3) ? getInt(header, 4) : syncSafe(header, 4);
+      }
+      if (size < 0) break;        // damaged frame
+      if (name.equals("TPOS") || name.equals("TPA"))
+        disc = parseNumber(readText(readBytes(channel, (position + headSize),
+          Math.min(size, FRAME_MAX))));
+      else if (name.equals("TRCK") || name.equals("TRK"))
+        track = parseNumber(readText(readBytes(channel, (position + headSize),
+          Math.min(size, FRAME_MAX))));
+      position += headSize + size;
+    }
+    return(makeKey(disc, track));
+  }
+
+/*
+  readKey() method
+
+  Return the sort key for one file, from whichever type of tag it has.  A file
+  that can't be read, or with a tag so damaged that it breaks our parsing, gets
+  TAG_NONE and sorts by name.
+*/
+  static int readKey(File file)
+  {
+    FileChannel channel;          // input from <file>
+    byte[] data;                  // bytes from end or beginning of file
+    int result;                   // our result
+    long size;                    // size of file in bytes
+    byte[] start;                 // first bytes of file
+
+    try
+    {
+      channel = new FileInputStream(file).getChannel();
+      try
+      {
+        start = readBytes(channel, 0, 12);
+        result = SortFatFolder2Engine.TAG_NONE;
+        if (start.length < 12)    // too short for any tag
+          return(result);
+        else if (new String(start, 0, 3, "ISO-8859-1").equals("ID3"))
+          result = readId3(channel, start);
+        else if (new String(start, 0, 4, "ISO-8859-1").equals("fLaC"))
+          result = readFlac(channel);
+        else if (new String(start, 0, 4, "ISO-8859-1").equals("OggS"))
+          result = readOgg(channel);
+        else if (new String(start, 4, 4, "ISO-8859-1").equals("ftyp"))
+          result = readMp4(channel);
+
+        /* MP3 files without a track number in ID3 version 2 may have an ID3
+        version 1.1 tag at the end, where a zero byte before the last byte
+        means that the last byte is the track number. */
+
+        size = channel.size();
+        if ((result == SortFatFolder2Engine.TAG_NONE) && (size >= 128))
+        {
+          data = readBytes(channel, (size - 128), 128);
+          if ((data.length == 128) && (data[0] == 'T') && (data[1] == 'A')
+            && (data[2] == 'G') && (data[125] == 0) && (data[126] != 0))
+          {
+            result = makeKey(0, (data[126] & 0xFF));
+          }
+        }
+        return(result);
+      }
+      finally
+      {
+        channel.close();
+      }
+    }
+    catch (IOException ioe)
+    {
+      return(SortFatFolder2Engine.TAG_NONE); // sort by name if can't read
+    }
+    catch (RuntimeException re)   // damaged tag we didn't expect
+    {
+      return(SortFatFolder2Engine.TAG_NONE); // sort by name, like no tag
+    }
+  }
+
+/*
+  readMp4() method
+
+  Return the sort key from the "trkn" and "disk" atoms of an MP4 file.  Each
+  has a "data" atom whose contents are a type, a locale, two zero bytes, and
+  then the number.
+*/
+  static int readMp4(FileChannel channel)
+    throws IOException
+  {
+    long[] atom;                  // start and end of atom contents
+    byte[] data;                  // contents of "trkn" or "disk" atom
+    int disc, track;              // numbers found, or -1
+
+    atom = findAtom(channel, 0, channel.size(), "moov");
+    if (atom != null) atom = findAtom(channel, atom[0], atom[1], "udta");
+    if (atom != null) atom = findAtom(channel, atom[0], atom[1], "meta");
+    if (atom != null) atom = findAtom(channel, (atom[0] + 4), atom[1], "ilst");
+    if (atom == null) return(SortFatFolder2Engine.TAG_NONE); // no tags
+    disc = track = -1;
+    data = readMp4Data(channel, findAtom(channel, atom[0], atom[1], "disk"));
+    if (data != null) disc = ((data[18] & 0xFF) << 8) | (data[19] & 0xFF);
+    data = readMp4Data(channel, findAtom(channel, atom[0], atom[1], "trkn"));
+    if (data != null) track = ((data[18] & 0xFF) << 8) | (data[19] & 0xFF);
+    return(makeKey(disc, track));
+  }
+
+/*
+  readMp4Data() method
+
+  Return the first 20 bytes of an atom's contents, enough for a "data" atom
+  with a number, or <null> if the atom is missing or too short.
+*/
+  static byte[] readMp4Data(FileChannel channel, long[] atom)
+    throws IOException
+  {
+    byte[] result;                // our result
+
+    if ((atom == null) || ((atom[1] - atom[0]) < 20))
+      return(null);
+    result = readBytes(channel, atom[0], 20);
+    if ((result.length < 20) || (new String(result, 4, 4, "ISO-8859-1")
+      .equals("data") == false))
+    {
+      return(null);
+    }
+    return(result);
+  }
+
+/*
+  readOgg() method
+
+  Return the sort key from the comment header of an Ogg Vorbis or Opus file,
+  which follows the identification header near the beginning of the file.
+  Comments that continue on a second page are cut off, and fields after that
+  point aren't found.
+*/
+  static int readOgg(FileChannel channel)
+    throws IOException
+  {
+    byte[] data;                  // beginning of file
+    int[] numbers;                // disc and track numbers
+    int offset;                   // position of comment header in <data>
+
+    data = readBytes(channel, 0, COMMENT_MAX);
+    if ((offset = indexOf(data, "\u0003vorbis")) >= 0)
+      offset += 7;                // Vorbis comment header
+    else if ((offset = indexOf(data, "OpusTags")) >= 0)
+      offset += 8;                // Opus comment header
+    else
+      return(SortFatFolder2Engine.TAG_NONE);
+    numbers = readComments(data, offset);
+    return(makeKey(numbers[0], numbers[1]));
+  }
+
+/*
+  readText() method
+
+  Return the text from an ID3 text frame, whose first byte says how the text
+  is encoded.
+*/
+  static String readText(byte[] data)
+    throws IOException
+  {
+    if (data.length < 2)          // encoding byte and at least one more
+      return("");
+    switch (data[0])
+    {
+      case (1): return(new String(data, 1, (data.length - 1), "UTF-16"));
+      case (2): return(new String(data, 1, (data.length - 1), "UTF-16BE"));
+      case (3): return(new String(data, 1, (data.length - 1), "UTF-8"));
+      default: return(new String(data, 1, (data.length - 1), "ISO-8859-1"));
+    }
+  }
+
+/*
+  syncSafe() method
+
+  Return a "sync safe" ID3 size from four bytes, with 7 bits in each byte.
+*/
+  static int syncSafe(byte[] data, int offset)
+  {
+    return(((data[offset] & 0x7F) << 21) | ((data[offset + 1] & 0x7F) << 14)
+      | ((data[offset + 2] & 0x7F) << 7) | (data[offset + 3] & 0x7F));
+  }
+
+} // end of SortFatFolder2Tags class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  SortFatFolder2Verify class
+
+  Check files copied back to a device by the -m3 option, on a separate thread,
+  while the engine copies the next file.  Each file is read back from the
+  device and its CRC32 checksum compared with the local copy's checksum.  The
+  local copy is deleted if they match.  Otherwise, the local copy is kept and
+  the first error is saved for the engine, which stops sorting.
+*/
+
+class SortFatFolder2Verify implements Runnable
+{
+  boolean busy;                   // true while a file is being checked
+  int checksumFirst;              // index of next checksum in <checksums>
+  long[] checksums;               // checksum for each file in <pending>
+  String failure;                 // first error message, or <null>
+  boolean finished;               // true when no more files will be added
+  ArrayList pending;              // target and copy for each file
+
+  public SortFatFolder2Verify()
+  {
+    busy = finished = false;      // nothing to do yet
+    checksumFirst = 0;
+    checksums = new long[16];     // grows as needed
+    failure = null;
+    pending = new ArrayList();
+  }
+
+  public synchronized void add(File target, File copy, long checksum)
+  {
+    int count;                    // number of checksums waiting
+    long[] larger;                // more room for <checksums>
+
+    count = pending.size() / 2;
+    if ((checksumFirst + count) >= checksums.length) // no room at the end?
+    {
+      larger = new long[Math.max(checksums.length, (count * 2))];
+      System.arraycopy(checksums, checksumFirst, larger, 0, count);
+      checksums = larger;         // waiting checksums now start at zero
+      checksumFirst = 0;
+    }
+    checksums[checksumFirst + count] = checksum;
+    pending.add(target);
+    pending.add(copy);
+    notifyAll();                  // wake up checking thread
+  }
+
+  public synchronized String finish()
+  {
+    finished = true;              // no more files will be added
+    notifyAll();
+    while (busy || (pending.isEmpty() == false))
+    {
+      try { wait(); }
+      catch (InterruptedException ie) { /* do nothing */ }
+    }
+    return(failure);
+  }
+
+  public synchronized String getFailure()
+  {
+    return(failure);
+  }
+
+  public void run()
+  {
+    long checksum;                // CRC32 checksum of local copy
+    File copy;                    // local copy of file
+    File target;                  // file on device to be checked
+
+    while (true)
+    {
+      synchronized (this)
+      {
+        busy = false;             // done with previous file, if any
+        notifyAll();              // maybe wake up finish()
+        while (pending.isEmpty() && (finished == false))
+        {
+          try { wait(); }
+          catch (InterruptedException ie) { /* do nothing */ }
+        }
+        if (pending.isEmpty())    // finished and nothing left to check
+          return;
+        target = (File) pending.remove(0);
+        copy = (File) pending.remove(0);
+        checksum = checksums[checksumFirst ++];
+        if (pending.isEmpty())    // nothing waiting, start again at zero
+          checksumFirst = 0;
+        busy = true;
+      }
+      if (SortFatFolder2Engine.checksumFile(target) != checksum)
+      {
+        synchronized (this)
+        {
+          if (failure == null)    // keep only the first error
+          {
+            failure = "Checksum doesn't match after copying " + copy.getPath()
+              + " to " + target.getPath();
+          }
+        }
+      }
+      else if (copy.delete() == false) // file is safe, delete local copy
+      {
+        synchronized (this)
+        {
+          if (failure == null)
+            failure = "Can't delete local copy: " + copy.getPath();
+        }
+      }
+    }
+  }
+
+} // end of SortFatFolder2Verify class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  SortFatFolder2Volume class
+
+  This class sorts the directory entries of a FAT16 or FAT32 volume directly,
+  by reading and rewriting the 32-byte directory entries in a volume or image
+  file.  Long file names (LFN) stay with their short (8.3) entries, "." and ".."
+  stay at the beginning of each subfolder, and the volume label stays at the
+  beginning of the root folder.  Deleted entries are dropped, and so are long
+  name entries with no short entry after them (left by a damaged volume or an
+  interrupted delete), which are reported for each folder.  Only directory
+  clusters are written; the file allocation tables (FAT) are never changed.
+
+  The volume must not be mounted (in use) by the operating system while we are
+  working, or the system will overwrite our changes, or worse.
+*/
+
+class SortFatFolder2Volume
+{
+  /* constants */
+
+  static final int ATTR_LONG_MASK = 0x3F; // attribute bits checked for LFN
+  static final int ATTR_LONG_NAME = 0x0F; // attribute value for LFN entries
+  static final int ATTR_SUBFOLDER = 0x10; // attribute bit for subfolders
+  static final int ATTR_VOLUME_ID = 0x08; // attribute bit for volume label
+  static final int ENTRY_DELETED = 0xE5; // first byte of a deleted entry
+  static final int ENTRY_END = 0x00; // first byte after last entry in use
+  static final int ENTRY_SIZE = 32; // number of bytes in a directory entry
+  static final int FAT16_CLUSTERS = 4085; // minimum clusters for FAT16
+  static final int FAT32_CLUSTERS = 65525; // minimum clusters for FAT32
+  static final int LFN_CHARS = 13; // characters in each LFN entry
+  static final int MAX_FOLDER = 65536 * ENTRY_SIZE; // largest legal folder
+
+  /* instance variables */
+
+  int bytesPerCluster;            // number of bytes in each data cluster
+  FileChannel channel;            // open channel to volume or image file
+  long clusterCount;              // number of data clusters on volume
+  long dataOffset;                // byte offset of first data cluster (#2)
+  SortFatFolder2Engine engine;    // options, output, and totals
+  ByteBuffer fatTable;            // first file allocation table (FAT)
+  boolean fat32Flag;              // true if FAT32, false if FAT16
+  File imageFile;                 // volume or image file given by caller
+  long rootCluster;               // first cluster of FAT32 root folder
+  long rootOffset;                // byte offset of FAT16 root folder
+  int rootSize;                   // number of bytes in FAT16 root folder
+  BitSet visitedClusters;         // first clusters of folders already seen
+
+  /* constructor */
+
+  public SortFatFolder2Volume(SortFatFolder2Engine givenEngine, File givenFile,
+    FileChannel givenChannel)
+  {
+    channel = givenChannel;
+    engine = givenEngine;
+    imageFile = givenFile;
+    visitedClusters = new BitSet(); // grows to largest cluster number seen
+  }
+
+
+/*
+  checksumShortName() method
+
+  Return the checksum for an 11-byte short name, as stored in each of the long
+  file name (LFN) entries that belong to the short name.
+*/
+  static int checksumShortName(byte[] data, int offset)
+  {
+    int i;                        // index variable
+    int sum;                      // our running checksum
+
+    sum = 0;
+    for (i = 0; i < 11; i ++)
+      sum = ((((sum & 1) << 7) + (sum >> 1)) + (data[offset + i] & 0xFF))
+        & 0xFF;
+    return(sum);
+  }
+
+
+/*
+  decodeShortName() method
+
+  Convert an 8.3 short name into a Java string.  Windows NT and later keep
+  two flags for names that are all lowercase, which is what a user sees when
+  there is no long file name.
+*/
+  static String decodeShortName(byte[] data, int offset)
+  {
+    byte[] bytes;                 // copy of name bytes
+    String base, extension;       // name and extension as strings
+    int flags;                    // Windows NT lowercase flags
+
+    bytes = new byte[11];
+    System.arraycopy(data, offset, bytes, 0, 11);
+    if ((bytes[0] & 0xFF) == 0x05) // special code for first byte as 0xE5
+      bytes[0] = (byte) ENTRY_DELETED;
+    try
+    {
+      base = new String(bytes, 0, 8, "Cp437").trim();
+      extension = new String(bytes, 8, 3, "Cp437").trim();
+    }
+    catch (UnsupportedEncodingException uee) // no DOS code page in this Java
+    {
+      base = new String(bytes, 0, 8).trim();
+      extension = new String(bytes, 8, 3).trim();
+    }
+    flags = data[offset + 12] & 0xFF;
+    if ((flags & 0x08) != 0) base = base.toLowerCase();
+    if ((flags & 0x10) != 0) extension = extension.toLowerCase();
+    return((extension.length() > 0) ? (base + "." + extension) : base);
+  }
+
+
+/*
+  getChar() method
+
+  Return one UTF-16 character from a long file name (LFN) entry.
+*/
+  static char getChar(byte[] data, int offset)
+  {
+    return((char) ((data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8)));
+  }
+
+
+/*
+  nextCluster() method
+
+  Return the next cluster number in a chain from the file allocation table, or
+  -1 if this is the end of the chain or the table entry is not valid.
+*/
+  long nextCluster(long cluster)
+  {
+    long result;                  // our result
+
+    if (fat32Flag)
+      result = fatTable.getInt((int) (cluster * 4)) & 0x0FFFFFFFL;
+    else
+      result = fatTable.getShort((int) (cluster * 2)) & 0xFFFFL;
+    if ((result < 2) || (result > (clusterCount + 1)))
+      result = -1;                // end of chain, bad cluster, or garbage
+    return(result);
+  }
+
+
+/*
+  readBootSector() method
+
+  Read the boot sector and find the size and location of everything else.
+  Return false and print a message if this is not a FAT16 or FAT32 volume.
+*/
+  boolean readBootSector() throws IOException
+  {
+    ByteBuffer boot;              // contents of boot sector
+    int bytesPerSector;           // number of bytes in each sector
+    long dataSectors;             // number of sectors in data area
+    long fatBytes;                // number of bytes used by FAT entries
+    long fatSectors;              // number of sectors in each FAT
+    int fatCount;                 // number of FAT copies
+    int reservedSectors;          // sectors before the first FAT
+    int rootEntries;              // number of entries in FAT16 root folder
+    long rootSectors;             // number of sectors in FAT16 root folder
+    int sectorsPerCluster;        // number of sectors in each cluster
+    long totalSectors;            // number of sectors on volume
+
+    boot = readRegion(0, 512);
+    bytesPerSector = boot.getShort(11) & 0xFFFF;
+    sectorsPerCluster = boot.get(13) & 0xFF;
+    reservedSectors = boot.getShort(14) & 0xFFFF;
+    fatCount = boot.get(16) & 0xFF;
+    rootEntries = boot.getShort(17) & 0xFFFF;
+    totalSectors = boot.getShort(19) & 0xFFFF;
+    if (totalSectors == 0) totalSectors = boot.getInt(32) & 0xFFFFFFFFL;
+    fatSectors = boot.getShort(22) & 0xFFFF;
+    if (fatSectors == 0) fatSectors = boot.getInt(36) & 0xFFFFFFFFL;
+
+    if (((boot.getShort(510) & 0xFFFF) != 0xAA55)
+      || ((bytesPerSector != 512) && (bytesPerSector != 1024)
+        && (bytesPerSector != 2048) && (bytesPerSector != 4096))
+      || (sectorsPerCluster == 0)
+      || ((sectorsPerCluster & (sectorsPerCluster - 1)) != 0)
+      || (reservedSectors == 0) || (fatCount == 0) || (fatSectors == 0))
+    {
+      engine.putOutput("Not a FAT16 or FAT32 volume: "
+        + imageFile.getPath());
+      return(false);
+    }
+
+    rootSectors = ((rootEntries * ENTRY_SIZE) + bytesPerSector - 1)
+      / bytesPerSector;
+    dataSectors = totalSectors - (reservedSectors + (fatCount * fatSectors)
+      + rootSectors);
+    bytesPerCluster = bytesPerSector * sectorsPerCluster;
+    clusterCount = (dataSectors > 0) ? (dataSectors / sectorsPerCluster) : 0;
+    if (clusterCount < FAT16_CLUSTERS)
+    {
+      engine.putOutput("FAT12 or damaged volumes are not supported: "
+        + imageFile.getPath());
+      return(false);
+    }
+    fat32Flag = (clusterCount >= FAT32_CLUSTERS);
+    if (fat32Flag != (rootEntries == 0)) // FAT32 has no fixed root folder
+    {
+      engine.putOutput("Inconsistent FAT16 or FAT32 boot sector: "
+        + imageFile.getPath());
+      return(false);
+    }
+
+    fatBytes = (clusterCount + 2) * (fat32Flag ? 4 : 2);
+    if (fatBytes > (fatSectors * bytesPerSector))
+    {
+      engine.putOutput("File allocation table is too small: "
+        + imageFile.getPath());
+      return(false);
+    }
+    fatTable = readRegion(((long) reservedSectors * bytesPerSector),
+      (int) fatBytes);
+    rootCluster = boot.getInt(44) & 0x0FFFFFFFL;
+    rootOffset = (reservedSectors + (fatCount * fatSectors)) * bytesPerSector;
+    rootSize = (int) (rootSectors * bytesPerSector);
+    dataOffset = rootOffset + rootSize;
+
+    engine.putOutput((fat32Flag ? "FAT32" : "FAT16") + " volume has "
+      + engine.formatComma.format(clusterCount) + " clusters of "
+      + engine.formatComma.format(bytesPerCluster) + " bytes.");
+    return(true);
+
+  } // end of readBootSector() method
+
+
+/*
+  readRegion() method
+
+  Return a little-endian buffer with the contents of part of the volume.  This
+  is used for the boot sector and the file allocation table, which are read
+  once.  Folder clusters are read by the next method into one byte array for
+  the whole folder.
+*/
+  ByteBuffer readRegion(long position, int length) throws IOException
+  {
+    byte[] data;                  // contents of region
+
+    data = new byte[length];
+    readRegion(position, data, 0, length);
+    return(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN));
+                                  // FAT is always little endian
+  }
+
+
+/*
+  readRegion() method
+
+  Read part of the volume into part of a byte array, with positional reads.
+  Nothing is memory mapped: mappings aren't released until garbage collection,
+  and reading one for each cluster of a large volume can use up the limit on
+  mappings for each process.  Block devices (disk drives) report their size as
+  zero and can't be mapped anyway.
+*/
+  void readRegion(long position, byte[] data, int offset, int length)
+    throws IOException
+  {
+    ByteBuffer buffer;            // wrapper for caller's byte array
+
+    buffer = ByteBuffer.wrap(data, offset, length);
+    while (buffer.hasRemaining())
+    {
+      if (channel.read(buffer, (position + (buffer.position() - offset))) < 0)
+        throw new EOFException("unexpected end of volume at byte "
+          + (position + (buffer.position() - offset)));
+    }
+  }
+
+
+/*
+  sortChain() method
+
+  Sort a folder given by its first cluster.  Follow the chain of clusters in
+  the file allocation table.
+*/
+  void sortChain(String folderPath, long firstCluster)
+  {
+    long cluster;                 // current cluster number
+    int count;                    // number of clusters in chain
+    long[] offsets;               // byte offsets for clusters in chain
+
+    if (visitedClusters.get((int) firstCluster)) // FAT32 uses only 28 bits
+    {
+      engine.putOutput("Ignoring subfolder already seen: "
+        + folderPath);            // cross-linked or damaged volume
+      return;
+    }
+    visitedClusters.set((int) firstCluster);
+
+    offsets = new long[MAX_FOLDER / bytesPerCluster + 1];
+    count = 0;
+    cluster = firstCluster;
+    while (cluster > 0)
+    {
+      if (count >= offsets.length) // folder is too big or chain has a loop
+      {
+        engine.putOutput("Folder is too big or damaged: "
+          + folderPath);
+        engine.cancel.cancel();
+        return;
+      }
+      offsets[count ++] = dataOffset + ((cluster - 2) * bytesPerCluster);
+      cluster = nextCluster(cluster);
+    }
+    sortFolder(folderPath, offsets, count, bytesPerCluster);
+  }
+
+
+/*
+  sortFolder() method
+
+  Sort the entries in one folder, given as a list of byte offsets for equal-size
+  regions (clusters), and then recurse on subfolders if the user wants.
+*/
+  void sortFolder(
+    String folderPath,            // path name for messages
+    long[] offsets,               // byte offsets of folder regions
+    int offsetCount,              // number of regions in <offsets>
+    int regionSize)               // number of bytes in each region
+  {
+    long cluster;                 // first cluster of a subfolder
+    long[] clusters;              // first cluster for each named entry
+    byte[] data;                  // original contents of folder
+    int entryCount;               // number of entries in folder
+    int first;                    // first byte of an entry
+    int fixedEnd;                 // bytes used by fixed entries in <sorted>
+    boolean[] folders;            // true for each named entry that's a folder
+    int[] groupCount;             // number of entries for each named entry
+    int groupTotal;               // number of named entries (files, folders)
+    int[] groupStart;             // first entry for each named entry
+    int i, k;                     // index variables
+    char[] lfnChars;              // characters collected from LFN entries
+    int lfnNext;                  // next LFN sequence number we expect
+    int lfnStart;                 // first LFN entry before short entry, or -1
+    int lfnSum;                   // checksum expected by LFN entries
+    int lfnUsed;                  // number of characters in <lfnChars>
+    String[] names;               // long or short name for each named entry
+    int offset;                   // byte offset into <data>
+    int[] order;                  // sorted order of named entries
+    int orphans;                  // LFN entries with no short entry after
+    byte[] sorted;                // new contents of folder
+    int sortedSize;               // bytes used in <sorted>
+
+    if (engine.cancel.isCancelled()) return; // stop if user cancel or error
+    engine.setStatusMessage(imageFile.getName() + ": " + folderPath);
+
+    /* Read the whole folder into memory.  Folders are limited in size by the
+    FAT specification, so this is never very big. */
+
+    data = new byte[offsetCount * regionSize];
+    try
+    {
+      for (i = 0; i < offsetCount; i ++)
+        readRegion(offsets[i], data, (i * regionSize), regionSize);
+    }
+    catch (IOException ioe)
+    {
+      engine.putOutput("Can't read folder " + folderPath + ": "
+        + ioe.getMessage());
+      engine.cancel.cancel();
+      return;
+    }
+
+    /* Find named entries (files and subfolders), each of which is a short
+    entry with zero or more LFN entries in front.  Entries that must stay in
+    front (".", "..", volume label) are copied to <sorted> as we find them. */
+
+    entryCount = data.length / ENTRY_SIZE;
+    clusters = new long[entryCount];
+    folders = new boolean[entryCount];
+    groupCount = new int[entryCount];
+    groupStart = new int[entryCount];
+    names = new String[entryCount];
+    groupTotal = 0;
+    sorted = new byte[data.length]; // all zeros, which marks end of folder
+    fixedEnd = 0;
+    lfnChars = new char[20 * LFN_CHARS]; // LFN has at most 20 entries
+    lfnNext = lfnStart = lfnSum = lfnUsed = -1;
+    orphans = 0;
+
+    for (i = 0; i < entryCount; i ++)
+    {
+      offset = i * ENTRY_SIZE;
+      first = data[offset] & 0xFF;
+      if (first == ENTRY_END)     // no more entries in use
+        break;
+      if (first == ENTRY_DELETED) // deleted entries are dropped
+      {
+        if (lfnStart >= 0) orphans += i - lfnStart; // LFN for deleted entry
+        lfnStart = -1;            // and break any LFN sequence
+        continue;
+      }
+
+      if ((data[offset + 11] & ATTR_LONG_MASK) == ATTR_LONG_NAME)
+      {
+        /* Long file name entries come in reverse order: the last part of the
+        name is first, with the 0x40 bit set in the sequence number. */
+
+        if ((first & 0x40) != 0)  // first physical entry of a long name
+        {
+          if (lfnStart >= 0) orphans += i - lfnStart; // previous name broken
+          lfnStart = i;
+          lfnNext = first & 0x1F;
+          lfnSum = data[offset + 13] & 0xFF;
+          lfnUsed = lfnNext * LFN_CHARS;
+          if (lfnUsed > lfnChars.length) lfnNext = -1; // too long, not valid
+        }
+        else if (lfnStart < 0)    // orphan with no beginning
+        {
+          lfnStart = i;           // keep with whatever follows
+          lfnNext = -1;           // but don't use as a name
+        }
+        if ((lfnNext > 0) && ((first & 0x1F) == lfnNext)
+          && ((data[offset + 13] & 0xFF) == lfnSum))
+        {
+          k = (lfnNext - 1) * LFN_CHARS;
+          lfnChars[k ++] = getChar(data, offset + 1);
+          lfnChars[k ++] = getChar(data, offset + 3);
+          lfnChars[k ++] = getChar(data, offset + 5);
+          lfnChars[k ++] = getChar(data, offset + 7);
+          lfnChars[k ++] = getChar(data, offset + 9);
+          lfnChars[k ++] = getChar(data, offset + 14);
+          lfnChars[k ++] = getChar(data, offset + 16);
+          lfnChars[k ++] = getChar(data, offset + 18);
+          lfnChars[k ++] = getChar(data, offset + 20);
+          lfnChars[k ++] = getChar(data, offset + 22);
+          lfnChars[k ++] = getChar(data, offset + 24);
+          lfnChars[k ++] = getChar(data, offset + 28);
+          lfnChars[k ++] = getChar(data, offset + 30);
+          lfnNext --;             // expect next lower sequence number
+        }
+        else
+          lfnNext = -1;           // sequence is broken, don't use as name
+        continue;
+      }
+
+      /* This is a short entry, with or without a long name in front. */
+
+      k = (lfnStart < 0) ? i : lfnStart; // first entry for this name
+      if ((first == '.') || ((data[offset + 11] & ATTR_VOLUME_ID) != 0))
+      {
+        System.arraycopy(data, (k * ENTRY_SIZE), sorted, fixedEnd,
+          ((i - k + 1) * ENTRY_SIZE));
+        fixedEnd += (i - k + 1) * ENTRY_SIZE;
+      }
+      else
+      {
+        groupStart[groupTotal] = k;
+        groupCount[groupTotal] = i - k + 1;
+        folders[groupTotal] = (data[offset + 11] & ATTR_SUBFOLDER) != 0;
+        if ((lfnStart >= 0) && (lfnNext == 0)
+          && (lfnSum == checksumShortName(data, offset)))
+        {
+          for (lfnUsed = 0; lfnUsed < (lfnChars.length); lfnUsed ++)
+            if ((lfnChars[lfnUsed] == 0x0000) || (lfnChars[lfnUsed] == 0xFFFF))
+              break;              // end of name, or padding after name
+          names[groupTotal] = new String(lfnChars, 0, lfnUsed);
+        }
+        else
+          names[groupTotal] = decodeShortName(data, offset);
+        cluster = (data[offset + 26] & 0xFF) | ((data[offset + 27] & 0xFF) << 8);
+        if (fat32Flag)
+          cluster |= ((data[offset + 20] & 0xFFL) << 16)
+            | ((data[offset + 21] & 0xFFL) << 24);
+        clusters[groupTotal] = cluster;
+        groupTotal ++;
+      }
+      Arrays.fill(lfnChars, (char) 0x0000); // clear previous name
+      lfnNext = lfnStart = -1;
+    }
+    if (lfnStart >= 0) orphans += i - lfnStart; // LFN at end of folder
+    if (orphans > 0)
+    {
+      engine.putOutput((engine.planFlag ? "Would drop " : "Dropping ")
+        + engine.formatComma.format(orphans)
+        + " long name entries with no short entry in folder: " + folderPath);
+    }
+
+    /* Put the named entries after the fixed entries in sorted order.  Write
+    the folder back only if something changed. */
+
+    order = engine.sortNameOrder(names, folders, null, groupTotal);
+                                  // can't read tags, files sorted by name
+    sortedSize = fixedEnd;
+    for (i = 0; i < order.length; i ++)
+    {
+      k = order[i];
+      System.arraycopy(data, (groupStart[k] * ENTRY_SIZE), sorted, sortedSize,
+        (groupCount[k] * ENTRY_SIZE));
+      sortedSize += groupCount[k] * ENTRY_SIZE;
+    }
+
+    if (engine.planFlag && (Arrays.equals(data, sorted) == false))
+    {
+      engine.writePlan(SortFatFolder2Engine.PLAN_WRITE, folderPath,
+        String.valueOf(order.length)); // dry run, report but don't write
+      engine.totalMoved += order.length;
+      engine.totalSorted ++;
+    }
+    else if (Arrays.equals(data, sorted) == false)
+    {
+      engine.putOutput("Resorting folder: " + folderPath);
+      try
+      {
+        for (i = 0; i < offsetCount; i ++)
+          writeRegion(offsets[i], sorted, (i * regionSize), regionSize);
+      }
+      catch (IOException ioe)
+      {
+        engine.putOutput("Can't write folder " + folderPath + ": "
+          + ioe.getMessage());
+        engine.cancel.cancel();
+        return;
+      }
+      engine.totalMoved += order.length;
+      engine.totalSorted ++;
+    }
+
+    /* Recurse on subfolders, in sorted order, if the user wants. */
+
+    if (engine.recurseFlag == false) return;
+    for (i = 0; i < order.length; i ++)
+    {
+      if (engine.cancel.isCancelled()) return; // stop if user cancel or error
+      k = order[i];
+      if (folders[k] == false) continue; // ignore files
+      if ((clusters[k] < 2) || (clusters[k] > (clusterCount + 1)))
+      {
+        engine.putOutput("Ignoring damaged subfolder: " + folderPath
+          + "/" + names[k]);
+        continue;
+      }
+      sortChain((folderPath.endsWith("/") ? folderPath : (folderPath + "/"))
+        + names[k], clusters[k]);
+    }
+  } // end of sortFolder() method
+
+
+/*
+  sortVolume() method
+
+  Sort the whole volume, starting with the root folder.  Return when finished,
+  or after an error, or if the user cancels.
+*/
+  void sortVolume() throws IOException
+  {
+    if (readBootSector() == false) // is this a volume we understand?
+    {
+      engine.cancel.cancel();
+      return;
+    }
+    if (fat32Flag)                // FAT32 root folder is a cluster chain
+      sortChain("/", rootCluster);
+    else                          // FAT16 root folder is a fixed region
+      sortFolder("/", new long[] {rootOffset}, 1, rootSize);
+    channel.force(false);         // write changes to the volume now
+  }
+
+
+/*
+  writeRegion() method
+
+  Write part of a byte array to a position in the volume.
+*/
+  void writeRegion(long position, byte[] data, int offset, int length)
+    throws IOException
+  {
+    ByteBuffer buffer;            // wrapper for caller's byte array
+
+    buffer = ByteBuffer.wrap(data, offset, length);
+    while (buffer.hasRemaining())
+      channel.write(buffer, (position + (buffer.position() - offset)));
+  }
+
+} // end of SortFatFolder2Volume class
+
+/* Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL. */
@@ -0,0 +1,30 @@
+/*
+  Sort FAT Folder #2 Entry - File Objects Not on a Real Disk
+  Java class name: SortFatFolder2Entry
+  Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL.
+
+  File objects that aren't on a real disk implement this interface, so that
+  new entries in a folder are created by the folder and not by the File class.
+  See the childFile() method and the SortFatFolder2Memory class.
+
+  Apache License or GNU General Public License
+  --------------------------------------------
+  SortFatFolder2Entry is free software and has been released under the terms
+  and conditions of the Apache License (version 2.0 or later) and/or the GNU
+  General Public License (GPL, version 2 or later).  This program is
+  distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the license(s) for more details.  You should have
+  received a copy of the licenses along with this program.  If not, see the
+  http://www.apache.org/licenses/ and http://www.gnu.org/licenses/ web pages.
+*/
+
+import java.io.*;                 // standard I/O
+
+public interface SortFatFolder2Entry
+{
+  public File getChild(String name); // File object for entry in this folder
+
+} // end of SortFatFolder2Entry interface
+
+/* Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL. */
@@ -0,0 +1,32 @@
+/*
+  Sort FAT Folder #2 Listener - Output From a Sorting Engine
+  Java class name: SortFatFolder2Listener
+  Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL.
+
+  A program using the engine implements this interface to receive output.  The
+  methods are called from the thread running the engine, so a GUI must pass
+  them along to its own event thread.
+
+  Apache License or GNU General Public License
+  --------------------------------------------
+  SortFatFolder2Listener is free software and has been released under the terms
+  and conditions of the Apache License (version 2.0 or later) and/or the GNU
+  General Public License (GPL, version 2 or later).  This program is
+  distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the license(s) for more details.  You should have
+  received a copy of the licenses along with this program.  If not, see the
+  http://www.apache.org/licenses/ and http://www.gnu.org/licenses/ web pages.
+*/
+
+public interface SortFatFolder2Listener
+{
+  public void putOutput(String text); // one complete line of output
+  public void setStatusMessage(String text); // current file or folder
+  public void showProgress(long done, long total, double rate);
+                                  // entries done, counted, per second; or
+                                  // ... all zero when progress has ended
+
+} // end of SortFatFolder2Listener interface
+
+/* Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL. */
@@ -0,0 +1,39 @@
+/*
+  Sort FAT Folder #2 Listing - Sorted Contents of One Folder
+  Java class name: SortFatFolder2Listing
+  Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL.
+
+  The sorted contents of one folder from the sortFileList() method, with a flag
+  for each entry that is a subfolder, in the same order.  The flags are read
+  once while sorting, so the caller doesn't ask the file system again.
+
+  Apache License or GNU General Public License
+  --------------------------------------------
+  SortFatFolder2Listing is free software and has been released under the terms
+  and conditions of the Apache License (version 2.0 or later) and/or the GNU
+  General Public License (GPL, version 2 or later).  This program is
+  distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the license(s) for more details.  You should have
+  received a copy of the licenses along with this program.  If not, see the
+  http://www.apache.org/licenses/ and http://www.gnu.org/licenses/ web pages.
+*/
+
+import java.io.*;                 // standard I/O
+
+public class SortFatFolder2Listing
+{
+  final File[] files;             // sorted contents of folder
+  final boolean[] folders;        // true for each subfolder in <files>
+
+  public SortFatFolder2Listing(
+    File[] files,                 // sorted contents of folder
+    boolean[] folders)            // true for each subfolder in <files>
+  {
+    this.files = files;
+    this.folders = folders;
+  }
+
+} // end of SortFatFolder2Listing class
+
+/* Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL. */
@@ -0,0 +1,907 @@
+/*
+  Sort FAT Folder #2 Memory - In-Memory FAT Folder Model for Testing
+  Java class name: SortFatFolder2Memory
+  Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL.
+
+  This is a Java 1.4 model of how a FAT16 or FAT32 file system keeps entries
+  in a folder, so that the SortFatFolder2 program can be tested and measured
+  without a USB drive, and with far more files than would be practical on a
+  real drive.  A RAM disk (tmpfs) is fast, but doesn't behave like FAT:
+
+   1. A FAT folder is a list of 32-byte slots.  Entries are listed in slot
+      order, not sorted, and not in any hashed order.
+
+   2. A name that isn't a valid short (8.3) name in uppercase needs extra slots
+      for its long file name (LFN), one per 13 characters, and all slots for an
+      entry must be next to each other.
+
+   3. Deleting an entry marks its slots as free.  A new entry goes into the
+      first free slots that are large enough, otherwise at the end.  Renaming
+      adds the new entry before removing the old entry.  Subfolders start with
+      two slots for "." and "..".  The root folder of FAT16 has a fixed number
+      of slots.
+
+  Folders and files are File objects (the SortFatFolder2MemoryFile class)
+  whose paths start with a root name that doesn't exist on disk, and which
+  override the File methods used by SortFatFolder2 to work on the model, so
+  the program doesn't need to know the difference.  Each operation may be
+  given a delay, to act like a slow device.  Files have no contents.
+
+  Run as a console application, this class creates a tree of folders and files
+  in random order, deletes and creates files so that new entries reuse free
+  slots, sorts the tree with SortFatFolder2, and then checks that every folder
+  is in sorted order with the same names as before:
+
+      javac  SortFatFolder2*.java
+      java  SortFatFolder2Memory  -d1000  -f1000  -m0
+
+  The exit status is 1 if the tree was sorted correctly, or -1 for failure.
+  The SortFatFolder2Bench program can also use this model with its -fat option.
+
+  Apache License or GNU General Public License
+  --------------------------------------------
+  SortFatFolder2Memory is free software and has been released under the terms
+  and conditions of the Apache License (version 2.0 or later) and/or the GNU
+  General Public License (GPL, version 2 or later).  This program is
+  distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the license(s) for more details.  You should have
+  received a copy of the licenses along with this program.  If not, see the
+  http://www.apache.org/licenses/ and http://www.gnu.org/licenses/ web pages.
+*/
+
+import java.io.*;                 // standard I/O
+import java.text.*;               // number formatting
+import java.util.*;               // calendars, dates, lists, maps, vectors
+import java.util.regex.*;         // regular expressions
+
+public class SortFatFolder2Memory
+{
+  /* constants */
+
+  static final int DOT_SLOTS = 2; // slots for "." and ".." in subfolders
+  static final int LFN_CHARS = 13; // characters in each long name slot
+  static final String[] OP_NAMES = {"create", "delete", "list", "move",
+    "stamp"};                     // operation names for counts and delays
+  static final int OP_CREATE = 0; // index for create file or folder
+  static final int OP_DELETE = 1; // index for delete file or folder
+  static final int OP_LIST = 2;   // index for list folder contents
+  static final int OP_MOVE = 3;   // index for move or rename
+  static final int OP_STAMP = 4;  // index for set date and time stamp
+  static final int ROOT_FAT16 = 512; // slots in FAT16 root folder
+  static final Pattern SHORT_NAME = Pattern.compile(
+    "[A-Z0-9!#$%&'()@^_`{}~-]{1,8}(\\.[A-Z0-9!#$%&'()@^_`{}~-]{1,3})?");
+                                  // names that need only one slot
+
+  /* instance variables */
+
+  long[] counts;                  // number of operations by OP_* index
+  int[] delays;                   // delay in milliseconds by OP_* index
+  SortFatFolder2MemoryNode root;  // root folder of this file system
+  String rootPath;                // path name for root folder
+  int rootSlots;                  // slots in root folder, or zero if no limit
+
+/*
+  SortFatFolder2Memory() constructor
+
+  Create an empty file system.  The root name should not exist on disk, and
+  should be an absolute path such as "/fat" or "\fat", so that File objects
+  don't try to make it relative to the current folder.
+*/
+  public SortFatFolder2Memory(
+    String rootName,              // path name for root folder
+    int rootSlots)                // ROOT_FAT16 for FAT16, zero for FAT32
+  {
+    this.counts = new long[OP_NAMES.length];
+    this.delays = new int[OP_NAMES.length];
+    this.root = new SortFatFolder2MemoryNode(rootName, true, 0);
+    this.rootPath = (new File(rootName)).getPath(); // normalized separators
+    this.rootSlots = rootSlots;
+  }
+
+
+/*
+  main() method
+
+  Create a random tree, sort it, and check the result.
+*/
+  public static void main(String[] args)
+  {
+    int deleteCount;              // number of files deleted after creating
+    long elapsed;                 // milliseconds for sorting
+    SortFatFolder2Engine engine;  // sorts the tree, keeps totals
+    int fileCount;                // number of files per subfolder
+    int folderCount;              // number of subfolders
+    NumberFormat formatComma;     // formats with commas (digit grouping)
+    int i;                        // index variable
+    int latency;                  // delay in milliseconds for each operation
+    HashSet names;                // path names before sorting
+    Random random;                // for names and order
+    int strategy;                 // STRATEGY_* constant for engine
+    SortFatFolder2Memory system;  // our file system
+    File top;                     // folder to be sorted
+    String word;                  // one parameter from command line
+
+    fileCount = folderCount = 100; // default size of tree
+    latency = 0;                  // default is as fast as possible
+    random = new Random(20170912L); // same tree for every run by default
+    strategy = SortFatFolder2Engine.STRATEGY_AUTO; // default is by cost
+    for (i = 0; i < args.length; i ++)
+    {
+      word = args[i];
+      if (word.startsWith("-d") && (word.length() > 2))
+        folderCount = Integer.parseInt(word.substring(2));
+      else if (word.startsWith("-f") && (word.length() > 2))
+        fileCount = Integer.parseInt(word.substring(2));
+      else if (word.startsWith("-l") && (word.length() > 2))
+        latency = Integer.parseInt(word.substring(2));
+      else if (word.equals("-m0") || word.equals("-m1") || word.equals("-m2"))
+        strategy = word.charAt(2) - '0';
+      else if (word.startsWith("-r") && (word.length() > 2))
+        random = new Random(Long.parseLong(word.substring(2)));
+      else
+      {
+        System.err.println("Usage: java SortFatFolder2Memory [-d#] [-f#]"
+          + " [-l#] [-m#] [-r#]");
+        System.err.println("  -d# = number of subfolders (default 100)");
+        System.err.println("  -f# = number of files per subfolder (default 100)");
+        System.err.println("  -l# = delay in milliseconds for each operation (default 0)");
+        System.err.println("  -m# = sort strategy, same as SortFatFolder2 (default -m0)");
+        System.err.println("  -r# = seed for random names");
+        System.exit(-1);
+      }
+    }
+
+    /* Create the tree, with one in five files deleted and created again, so
+    that free slots are reused. */
+
+    formatComma = NumberFormat.getInstance();
+    system = new SortFatFolder2Memory((File.separator + "fat"), 0);
+    top = system.getRoot().getChild("top");
+    try
+    {
+      system.makeTree(top, folderCount, fileCount, random);
+      deleteCount = system.churnTree(top, random);
+    }
+    catch (IOException ioe)
+    {
+      System.err.println("Can't create tree: " + ioe.getMessage());
+      System.exit(-1);
+      return;
+    }
+    names = new HashSet();
+    system.collectNames(top, names);
+    System.out.println("Created " + formatComma.format(names.size())
+      + " files and folders, with " + formatComma.format(deleteCount)
+      + " deleted and created again.");
+
+    /* Sort the tree with an engine, as if the user had given the top folder
+    on the command line.  There is no journal (not on disk), and the summary
+    has timing for each type of call. */
+
+    engine = new SortFatFolder2Engine(new SortFatFolder2Options.Builder()
+      .setJournalMode(SortFatFolder2Engine.JOURNAL_OFF).setMetricFlag(true)
+      .setStrategy(strategy).build(), null, new SortFatFolder2Cancel());
+    Arrays.fill(system.counts, 0);
+    Arrays.fill(system.delays, latency);
+
+    elapsed = System.currentTimeMillis();
+    engine.processFileOrFolder(top); // messages go on standard output
+    elapsed = System.currentTimeMillis() - elapsed;
+    engine.printSummary();
+    system.printCounts(formatComma);
+    System.out.println("Sorting took " + formatComma.format(elapsed / 1000.0)
+      + " seconds.");
+
+    /* Check the result. */
+
+    if (engine.cancel.isCancelled())
+    {
+      System.out.println("FAILED: sorting was stopped by an error.");
+      System.exit(-1);
+    }
+    else if (system.checkTree(engine, top, names) == false)
+    {
+      System.out.println("FAILED: tree is not sorted or has changed.");
+      System.exit(-1);
+    }
+    System.out.println("PASSED: every folder is sorted and nothing is lost.");
+    System.exit(1);
+  } // end of main() method
+
+
+/*
+  add() method
+
+  Put an entry in the first free slots of a folder that are large enough, or
+  else at the end.  Returns false if the root folder of FAT16 is full.
+*/
+  boolean add(SortFatFolder2MemoryNode folder, SortFatFolder2MemoryNode entry)
+  {
+    int count;                    // number of slots needed for <entry>
+    int i;                        // index variable
+    int run;                      // number of free slots in a row
+    ArrayList slots;              // slots for <folder>
+
+    count = slotCount(entry.name);
+    slots = folder.slots;
+    run = 0;
+    for (i = folder.firstFree; i < slots.size(); i ++)
+    {
+      if (slots.get(i) != null)   // is this slot in use?
+        run = 0;
+      else if (++ run == count)   // found enough free slots in a row
+        break;
+    }
+    if (i >= slots.size())        // use free slots at end, then add more
+    {
+      if ((folder.parent == null) && (rootSlots > 0)
+        && ((slots.size() - run + count) > rootSlots))
+      {
+        return(false);            // FAT16 root folder is full
+      }
+      while (run < count)
+      {
+        slots.add(null);
+        run ++;
+      }
+      i = slots.size() - 1;
+    }
+    entry.slot = i - count + 1;   // first slot for this entry
+    for (i = entry.slot; i < (entry.slot + count); i ++)
+      slots.set(i, entry);
+    if (folder.firstFree == entry.slot) // was this the first free slot?
+    {
+      while ((folder.firstFree < slots.size())
+        && (slots.get(folder.firstFree) != null))
+      {
+        folder.firstFree ++;
+      }
+    }
+    entry.parent = folder;
+    folder.names.put(entry.name.toLowerCase(), entry);
+    return(true);
+  }
+
+
+/*
+  checkFolder() method
+
+  Return true if a folder and its subfolders are in sorted order, using the
+  engine's sorting order, and add the path names of everything inside to a set.
+*/
+  boolean checkFolder(SortFatFolder2Engine engine, File folder, HashSet names)
+  {
+    File[] contents;              // contents of <folder> in slot order
+    int i;                        // index variable
+    File[] sorted;                // same contents in sorted order
+
+    contents = folder.listFiles();
+    sorted = engine.sortFileList(contents).files;
+    if (SortFatFolder2Engine.sortedPrefix(contents, sorted) < contents.length)
+    {
+      System.out.println("Not sorted: " + folder.getPath());
+      return(false);
+    }
+    for (i = 0; i < contents.length; i ++)
+    {
+      names.add(contents[i].getPath());
+      if (contents[i].isDirectory() && (checkFolder(engine, contents[i],
+        names) == false))
+      {
+        return(false);
+      }
+    }
+    return(true);
+  }
+
+
+/*
+  checkTree() method
+
+  Return true if every folder is in sorted order and the path names are the
+  same as before sorting.
+*/
+  boolean checkTree(SortFatFolder2Engine engine, File top, HashSet before)
+  {
+    HashSet after;                // path names after sorting
+
+    after = new HashSet();
+    if (checkFolder(engine, top, after) == false)
+      return(false);
+    return(after.equals(before));
+  }
+
+
+/*
+  churnTree() method
+
+  Delete about one file in five from each subfolder, then create them again,
+  so that their slots are reused by other names, the way a FAT folder gets out
+  of order over time.  Returns the number of files deleted.
+*/
+  int churnTree(File top, Random random) throws IOException
+  {
+    File[] contents;              // contents of one subfolder
+    int count;                    // number of files deleted
+    File[] folders;               // subfolders of <top>
+    int i, k;                     // index variables
+    ArrayList removed;            // files that were deleted
+
+    count = 0;
+    folders = top.listFiles();
+    for (i = 0; i < folders.length; i ++)
+    {
+      contents = folders[i].listFiles();
+      removed = new ArrayList();
+      for (k = 0; k < contents.length; k ++)
+      {
+        if (contents[k].isFile() && (random.nextInt(5) == 0))
+        {
+          if (contents[k].delete() == false)
+            throw new IOException("can't delete " + contents[k].getPath());
+          removed.add(contents[k]);
+        }
+      }
+      Collections.shuffle(removed, random);
+      for (k = 0; k < removed.size(); k ++)
+      {
+        if (((File) removed.get(k)).createNewFile() == false)
+          throw new IOException("can't create " + removed.get(k));
+      }
+      count += removed.size();
+    }
+    return(count);
+  }
+
+
+/*
+  collectNames() method
+
+  Add the path names of everything inside a folder to a set.
+*/
+  void collectNames(File folder, HashSet names)
+  {
+    File[] contents;              // contents of <folder>
+    int i;                        // index variable
+
+    contents = folder.listFiles();
+    for (i = 0; i < contents.length; i ++)
+    {
+      names.add(contents[i].getPath());
+      if (contents[i].isDirectory())
+        collectNames(contents[i], names);
+    }
+  }
+
+
+/*
+  create() method
+
+  Create a new file or folder.  Returns false if the name already exists, the
+  parent folder doesn't exist, or the root folder is full.
+*/
+  boolean create(String path, boolean folderFlag)
+  {
+    SortFatFolder2MemoryNode entry; // new file or folder
+    SortFatFolder2MemoryNode parent; // parent folder
+
+    operation(OP_CREATE);
+    parent = find(parentPath(path));
+    if ((parent == null) || (parent.slots == null) || (find(path) != null))
+      return(false);
+    entry = new SortFatFolder2MemoryNode(nameOf(path), folderFlag,
+      DOT_SLOTS);
+    return(add(parent, entry));
+  }
+
+
+/*
+  delete() method
+
+  Delete a file or an empty folder.
+*/
+  boolean delete(String path)
+  {
+    SortFatFolder2MemoryNode entry; // file or folder to be deleted
+
+    operation(OP_DELETE);
+    entry = find(path);
+    if ((entry == null) || (entry.parent == null) // missing, or root folder?
+      || ((entry.slots != null) && (entry.names.isEmpty() == false)))
+    {
+      return(false);
+    }
+    free(entry.parent, entry.slot, entry.name, entry);
+    entry.parent = null;          // no longer in any folder
+    return(true);
+  }
+
+
+/*
+  find() method
+
+  Return the model for a path name, or <null> if it doesn't exist.  Names are
+  found without regard to uppercase and lowercase, like FAT.
+*/
+  SortFatFolder2MemoryNode find(String path)
+  {
+    SortFatFolder2MemoryNode entry; // current folder, then entry
+    int end;                      // end of current name in <path>
+    int start;                    // start of current name in <path>
+
+    if (path.equals(rootPath))
+      return(root);
+    if ((path.startsWith(rootPath) == false) || (path.length()
+      <= rootPath.length()) || (path.charAt(rootPath.length())
+      != File.separatorChar))
+    {
+      return(null);               // not in this file system
+    }
+    entry = root;
+    start = rootPath.length() + 1;
+    while ((entry != null) && (start <= path.length()))
+    {
+      if (entry.names == null)    // files have no entries
+        return(null);
+      end = path.indexOf(File.separatorChar, start);
+      if (end < 0) end = path.length();
+      entry = (SortFatFolder2MemoryNode) entry.names.get(path.substring(start,
+        end).toLowerCase());
+      start = end + 1;
+    }
+    return(entry);
+  }
+
+
+/*
+  free() method
+
+  Mark the slots for an entry as free, and forget its name in that folder.
+*/
+  void free(
+    SortFatFolder2MemoryNode folder, // folder with the entry
+    int slot,                     // first slot for the entry
+    String name,                  // name of the entry in <folder>
+    SortFatFolder2MemoryNode entry) // file or folder in those slots
+  {
+    int i;                        // index variable
+
+    for (i = slot; (i < folder.slots.size()) && (folder.slots.get(i)
+      == entry); i ++)
+    {
+      folder.slots.set(i, null);  // slot is free, but not at end of folder
+    }
+    folder.firstFree = Math.min(folder.firstFree, slot);
+    folder.names.remove(name.toLowerCase());
+  }
+
+
+/*
+  getRoot() method
+
+  Return a File object for the root folder.
+*/
+  public SortFatFolder2MemoryFile getRoot()
+  {
+    return(new SortFatFolder2MemoryFile(this, rootPath));
+  }
+
+
+/*
+  list() method
+
+  Return the names in a folder in slot order, or <null> if the path isn't a
+  folder.
+*/
+  String[] list(String path)
+  {
+    SortFatFolder2MemoryNode entry; // entry in one slot
+    SortFatFolder2MemoryNode folder; // folder to be listed
+    int i;                        // index variable
+    int k;                        // number of names found
+    String[] result;              // our result
+
+    operation(OP_LIST);
+    folder = find(path);
+    if ((folder == null) || (folder.slots == null))
+      return(null);
+    result = new String[folder.names.size()];
+    k = 0;
+    for (i = 0; i < folder.slots.size(); i ++)
+    {
+      entry = (SortFatFolder2MemoryNode) folder.slots.get(i);
+      if ((entry != null) && (entry.slot == i) && (entry.parent == folder))
+        result[k ++] = entry.name; // first slot of a real entry
+    }
+    return(result);
+  }
+
+
+/*
+  makeTree() method
+
+  Create a folder with subfolders that each have files and one nested folder,
+  all created in random order.
+*/
+  void makeTree(File top, int folderCount, int fileCount, Random random)
+    throws IOException
+  {
+    int i, k;                     // index variables
+    File folder;                  // one subfolder
+
+    if (top.mkdirs() == false)
+      throw new IOException("can't create " + top.getPath());
+    for (i = 0; i < folderCount; i ++)
+    {
+      folder = ((SortFatFolder2MemoryFile) top).getChild(randomName(random,
+        i));
+      if (folder.mkdir() == false)
+        throw new IOException("can't create " + folder.getPath());
+      for (k = 0; k < fileCount; k ++)
+      {
+        if (((SortFatFolder2MemoryFile) folder).getChild(randomName(random,
+          k)).createNewFile() == false)
+        {
+          throw new IOException("can't create file in " + folder.getPath());
+        }
+      }
+      if (((SortFatFolder2MemoryFile) folder).getChild("Nested Folder")
+        .mkdir() == false)
+      {
+        throw new IOException("can't create folder in " + folder.getPath());
+      }
+    }
+  }
+
+
+/*
+  move() method
+
+  Move or rename a file or folder.  The new entry is added before the old entry
+  is removed, so a rename in the same folder never reuses its own slots.
+*/
+  boolean move(String oldPath, String newPath)
+  {
+    SortFatFolder2MemoryNode ancestor; // checks for moving into itself
+    SortFatFolder2MemoryNode entry; // file or folder being moved
+    String oldName;               // name of <entry> before moving
+    SortFatFolder2MemoryNode oldParent; // parent of <entry> before moving
+    int oldSlot;                  // first slot of <entry> before moving
+    SortFatFolder2MemoryNode parent; // new parent folder
+
+    operation(OP_MOVE);
+    entry = find(oldPath);
+    parent = find(parentPath(newPath));
+    if ((entry == null) || (entry.parent == null) || (parent == null)
+      || (parent.slots == null) || (find(newPath) != null))
+    {
+      return(false);
+    }
+    for (ancestor = parent; ancestor != null; ancestor = ancestor.parent)
+      if (ancestor == entry)      // can't move a folder inside itself
+        return(false);
+    oldName = entry.name;
+    oldParent = entry.parent;
+    oldSlot = entry.slot;
+    entry.name = nameOf(newPath);
+    if (add(parent, entry) == false) // root folder may be full
+    {
+      entry.name = oldName;       // nothing changed
+      return(false);
+    }
+    free(oldParent, oldSlot, oldName, entry); // after using new slots
+    return(true);
+  }
+
+
+/*
+  nameOf() method
+
+  Return the last name in a path name.
+*/
+  static String nameOf(String path)
+  {
+    return(path.substring(path.lastIndexOf(File.separatorChar) + 1));
+  }
+
+
+/*
+  operation() method
+
+  Count an operation, and wait if the caller wants a slow file system.
+*/
+  void operation(int index)
+  {
+    counts[index] ++;
+    if (delays[index] > 0) try { Thread.sleep(delays[index]); }
+    catch (InterruptedException ie) { /* do nothing */ }
+  }
+
+
+/*
+  parentPath() method
+
+  Return the path name of the parent folder for a path name.
+*/
+  static String parentPath(String path)
+  {
+    int index;                    // last separator in <path>
+
+    index = path.lastIndexOf(File.separatorChar);
+    return((index > 0) ? path.substring(0, index) : "");
+  }
+
+
+/*
+  printCounts() method
+
+  Print the number of operations of each type.
+*/
+  void printCounts(NumberFormat formatComma)
+  {
+    StringBuffer buffer;          // faster than String for multiple appends
+    int i;                        // index variable
+
+    buffer = new StringBuffer();
+    buffer.append("FAT model operations:");
+    for (i = 0; i < OP_NAMES.length; i ++)
+    {
+      buffer.append((i > 0) ? ", " : " ");
+      buffer.append(OP_NAMES[i]);
+      buffer.append(" ");
+      buffer.append(formatComma.format(counts[i]));
+    }
+    buffer.append(".");
+    System.out.println(buffer.toString());
+  }
+
+
+/*
+  randomName() method
+
+  Return a random file name, some short (8.3) and some long with mixed case,
+  made unique with a number.
+*/
+  static String randomName(Random random, int number)
+  {
+    StringBuffer buffer;          // faster than String for multiple appends
+    int i;                        // index variable
+    int length;                   // number of random letters
+
+    buffer = new StringBuffer();
+    if (random.nextInt(4) == 0)   // one in four is a short name
+    {
+      length = 1 + random.nextInt(3);
+      for (i = 0; i < length; i ++)
+        buffer.append((char) ('A' + random.nextInt(26)));
+      buffer.append(number);      // at most eight characters in total
+      buffer.append(".TXT");
+    }
+    else                          // others are long names
+    {
+      length = 3 + random.nextInt(30);
+      for (i = 0; i < length; i ++)
+      {
+        buffer.append((char) ((random.nextBoolean() ? 'a' : 'A')
+          + random.nextInt(26)));
+        if (random.nextInt(8) == 0) buffer.append(' ');
+      }
+      buffer.append(" ");
+      buffer.append(number);
+      buffer.append(".jpg");
+    }
+    return(buffer.toString());
+  }
+
+
+/*
+  setStamp() method
+
+  Set the date and time stamp for an entry.
+*/
+  boolean setStamp(String path, long stamp)
+  {
+    SortFatFolder2MemoryNode entry; // file or folder
+
+    operation(OP_STAMP);
+    entry = find(path);
+    if (entry == null)
+      return(false);
+    entry.stamp = stamp - (stamp % 2000); // FAT has two-second resolution
+    return(true);
+  }
+
+
+/*
+  slotCount() method
+
+  Return the number of slots needed for a name: one for the short (8.3) entry,
+  plus one for every 13 characters of a long name, if the name isn't a valid
+  short name in uppercase.
+*/
+  static int slotCount(String name)
+  {
+    if (SHORT_NAME.matcher(name).matches())
+      return(1);
+    return(1 + ((name.length() + LFN_CHARS - 1) / LFN_CHARS));
+  }
+
+
+/*
+  stampOf() method
+
+  Return the date and time stamp for an entry, or zero if it doesn't exist.
+*/
+  long stampOf(String path)
+  {
+    SortFatFolder2MemoryNode entry; // file or folder
+
+    entry = find(path);
+    return((entry != null) ? entry.stamp : 0);
+  }
+
+} // end of SortFatFolder2Memory class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  SortFatFolder2MemoryFile class
+
+  A File object for a file or folder in the in-memory FAT model.  Only the
+  File methods used by SortFatFolder2 (and our own testing) are replaced.
+  Path names are kept by the File class, as usual.
+*/
+
+class SortFatFolder2MemoryFile extends File implements SortFatFolder2Entry
+{
+  /* constants */
+
+  static final long serialVersionUID = 1L; // File is serializable; never written
+
+  /* instance variables */
+
+  SortFatFolder2Memory system;    // file system for this path name
+
+  /* constructor */
+
+  public SortFatFolder2MemoryFile(SortFatFolder2Memory system, String path)
+  {
+    super(path);
+    this.system = system;
+  }
+
+  /* File methods that are replaced */
+
+  public boolean createNewFile() { return(system.create(getPath(), false)); }
+
+  public boolean delete() { return(system.delete(getPath())); }
+
+  public boolean exists() { return(system.find(getPath()) != null); }
+
+  public File getAbsoluteFile() { return(this); }
+
+  public File getCanonicalFile() { return(this); }
+
+  public File getChild(String name)
+  {
+    return(new SortFatFolder2MemoryFile(system, (getPath() + separator
+      + name)));
+  }
+
+  public File getParentFile()
+  {
+    if (system.find(getPath()) == system.root) // root has no parent here
+      return(null);
+    return(new SortFatFolder2MemoryFile(system, SortFatFolder2Memory
+      .parentPath(getPath())));
+  }
+
+  public boolean isDirectory()
+  {
+    SortFatFolder2MemoryNode entry; // file or folder
+
+    entry = system.find(getPath());
+    return((entry != null) && (entry.slots != null));
+  }
+
+  public boolean isFile()
+  {
+    SortFatFolder2MemoryNode entry; // file or folder
+
+    entry = system.find(getPath());
+    return((entry != null) && (entry.slots == null));
+  }
+
+  public long lastModified() { return(system.stampOf(getPath())); }
+
+  public File[] listFiles()
+  {
+    int i;                        // index variable
+    String[] names;               // names in slot order
+    File[] result;                // our result
+
+    names = system.list(getPath());
+    if (names == null)            // not a folder
+      return(null);
+    result = new File[names.length];
+    for (i = 0; i < names.length; i ++)
+      result[i] = getChild(names[i]);
+    return(result);
+  }
+
+  public boolean mkdir() { return(system.create(getPath(), true)); }
+
+  public boolean mkdirs()
+  {
+    File parent;                  // parent folder
+
+    if (exists())
+      return(false);
+    parent = getParentFile();
+    if ((parent != null) && (parent.exists() == false))
+      parent.mkdirs();
+    return(mkdir());
+  }
+
+  public boolean renameTo(File dest)
+  {
+    if ((dest instanceof SortFatFolder2MemoryFile) == false)
+      return(false);              // can't move between file systems
+    return(system.move(getPath(), dest.getPath()));
+  }
+
+  public boolean setLastModified(long time)
+  {
+    return(system.setStamp(getPath(), time));
+  }
+
+} // end of SortFatFolder2MemoryFile class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  SortFatFolder2MemoryNode class
+
+  One file or folder in the in-memory FAT model.  A folder has a list of slots,
+  where each entry is in one or more slots next to each other, and free slots
+  are <null>.  Folders also have a map from lowercase names to entries.
+*/
+
+class SortFatFolder2MemoryNode
+{
+  /* instance variables */
+
+  int firstFree;                  // first free slot in folder, for searching
+  String name;                    // name of this file or folder
+  HashMap names;                  // lowercase names in folder, else <null>
+  SortFatFolder2MemoryNode parent; // parent folder, or <null> for root
+  int slot;                       // first slot for this entry in parent
+  ArrayList slots;                // entries by slot in folder, else <null>
+  long stamp;                     // date and time stamp in milliseconds
+
+  /* constructor */
+
+  public SortFatFolder2MemoryNode(
+    String name,                  // name of file or folder
+    boolean folderFlag,           // true if this is a folder
+    int dotSlots)                 // slots used by "." and ".." in folder
+  {
+    int i;                        // index variable
+
+    this.name = name;
+    this.stamp = System.currentTimeMillis();
+    this.stamp -= this.stamp % 2000; // FAT has two-second resolution
+    if (folderFlag)
+    {
+      this.names = new HashMap();
+      this.slots = new ArrayList();
+      for (i = 0; i < dotSlots; i ++)
+        this.slots.add(this);     // "." and ".." are never free
+      this.firstFree = dotSlots;
+    }
+  }
+
+} // end of SortFatFolder2MemoryNode class
+
+/* Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL. */
@@ -0,0 +1,266 @@
+/*
+  Sort FAT Folder #2 Options - User Options for a Sorting Engine
+  Java class name: SortFatFolder2Options
+  Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL.
+
+  User options for an engine.  The options can't be changed after they are
+  created, so one options object may be given to several engines.  Integer
+  options are the constants from the SortFatFolder2Engine class.
+
+  Options are made by a builder, which starts with the same defaults as the
+  command line, and has one named method for each option that the caller wants
+  to change.  New options don't change any existing callers:
+
+      options = new SortFatFolder2Options.Builder()
+        .setJournalMode(SortFatFolder2Engine.JOURNAL_OFF)
+        .setPlanFlag(true)
+        .build();
+
+  Apache License or GNU General Public License
+  --------------------------------------------
+  SortFatFolder2Options is free software and has been released under the terms
+  and conditions of the Apache License (version 2.0 or later) and/or the GNU
+  General Public License (GPL, version 2 or later).  This program is
+  distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the license(s) for more details.  You should have
+  received a copy of the licenses along with this program.  If not, see the
+  http://www.apache.org/licenses/ and http://www.gnu.org/licenses/ web pages.
+*/
+
+import java.io.*;                 // standard I/O
+import java.text.*;               // collation strength
+import java.util.*;               // calendars, dates, lists, maps, vectors
+
+public class SortFatFolder2Options
+{
+  final boolean caseFlag;         // true if upper/lower case names different
+  final Locale collateLocale;     // locale for COLLATE_LOCALE, or <null>
+  final int collateMode;          // COLLATE_* constant for comparing names
+  final int collateStrength;      // Collator strength for COLLATE_LOCALE
+  final File copyFolder;          // parent of local copies, or <null> for temp
+  final int journalMode;          // JOURNAL_* constant for journal, recovery
+  final boolean manifestFlag;     // true if we keep a manifest of sorted folders
+  final File metricFile;          // CSV file for timing, or <null>
+  final boolean metricFlag;       // true if we print timing after summary
+  final File planFile;            // dry run: plan file, or <null> for temp
+  final boolean planFlag;         // true for dry run, nothing is changed
+  final boolean probeFlag;        // dry run: time a probe next to given folder
+  final boolean progressFlag;     // true if we count entries before sorting
+  final boolean recurseFlag;      // true if we search folders and subfolders
+  final int sortOrder;            // ORDER_* constant for subfolders, files
+  final SortFatFolder2Spec sortSpec; // keys from -k(spec) option, or <null>
+  final boolean stampFlag;        // true if manifest skips folders by stamp
+  final int strategy;             // STRATEGY_* constant for how to sort
+  final File tagFile;             // cache of disc, track numbers, or <null>
+  final File traceFile;           // event trace file, or <null> if none
+  final boolean volumeFlag;       // true if names are raw FAT volumes, images
+
+  SortFatFolder2Options(Builder builder)
+  {
+    this.caseFlag = builder.caseFlag;
+    this.collateLocale = builder.collateLocale;
+    this.collateMode = builder.collateMode;
+    this.collateStrength = builder.collateStrength;
+    this.copyFolder = builder.copyFolder;
+    this.journalMode = builder.journalMode;
+    this.manifestFlag = builder.manifestFlag;
+    this.metricFile = builder.metricFile;
+    this.metricFlag = builder.metricFlag;
+    this.planFile = builder.planFile;
+    this.planFlag = builder.planFlag;
+    this.probeFlag = builder.probeFlag;
+    this.progressFlag = builder.progressFlag;
+    this.recurseFlag = builder.recurseFlag;
+    this.sortOrder = builder.sortOrder;
+    this.sortSpec = builder.sortSpec;
+    this.stampFlag = builder.stampFlag;
+    this.strategy = builder.strategy;
+    this.tagFile = builder.tagFile;
+    this.traceFile = builder.traceFile;
+    this.volumeFlag = builder.volumeFlag;
+  }
+
+/*
+  SortFatFolder2Options.Builder class
+
+  Collect options one at a time, then build() an options object.  Each set
+  method returns the builder, so that calls can be chained.  A builder may be
+  used again after build(), to make options that differ in a few places.
+*/
+  public static class Builder
+  {
+    boolean caseFlag;             // true if upper/lower case names different
+    Locale collateLocale;         // locale for COLLATE_LOCALE, or <null>
+    int collateMode;              // COLLATE_* constant for comparing names
+    int collateStrength;          // Collator strength for COLLATE_LOCALE
+    File copyFolder;              // parent of local copies, or <null> for temp
+    int journalMode;              // JOURNAL_* constant for journal, recovery
+    boolean manifestFlag;         // true if we keep a manifest of sorted folders
+    File metricFile;              // CSV file for timing, or <null>
+    boolean metricFlag;           // true if we print timing after summary
+    File planFile;                // dry run: plan file, or <null> for temp
+    boolean planFlag;             // true for dry run, nothing is changed
+    boolean probeFlag;            // dry run: time a probe next to given folder
+    boolean progressFlag;         // true if we count entries before sorting
+    boolean recurseFlag;          // true if we search folders and subfolders
+    int sortOrder;                // ORDER_* constant for subfolders, files
+    SortFatFolder2Spec sortSpec;  // keys from -k(spec) option, or <null>
+    boolean stampFlag;            // true if manifest skips folders by stamp
+    int strategy;                 // STRATEGY_* constant for how to sort
+    File tagFile;                 // cache of disc, track numbers, or <null>
+    File traceFile;               // event trace file, or <null> if none
+    boolean volumeFlag;           // true if names are raw FAT volumes, images
+
+    public Builder()
+    {
+      caseFlag = false;           // ignore uppercase/lowercase in file names
+      collateLocale = null;       // default locale if collator wanted
+      collateMode = SortFatFolder2Engine.COLLATE_NAME; // compare characters
+      collateStrength = Collator.TERTIARY; // default strength for collator
+      copyFolder = null;          // local copies go in temporary folder
+      journalMode = SortFatFolder2Engine.JOURNAL_ON; // write a journal
+      manifestFlag = false;       // list every folder
+      metricFile = null;          // don't write timing as CSV
+      metricFlag = false;         // don't print timing
+      planFile = null;            // dry run plan goes in temporary folder
+      planFlag = false;           // really sort folders
+      probeFlag = false;          // dry run doesn't touch parent folder
+      progressFlag = false;       // don't count before sorting
+      recurseFlag = true;         // process folders and subfolders
+      sortOrder = SortFatFolder2Engine.ORDER_SUBFIRST; // subfolders first
+      sortSpec = null;            // no sort keys, use collation and order
+      stampFlag = (System.getProperty("os.name").startsWith("Windows")
+        == false);                // Windows doesn't update FAT folder stamps
+      strategy = SortFatFolder2Engine.STRATEGY_AUTO; // by cost
+      tagFile = null;             // don't cache tags
+      traceFile = null;           // don't write event trace
+      volumeFlag = false;         // names are folders, not volumes
+    }
+
+    public SortFatFolder2Options build()
+    {
+      return(new SortFatFolder2Options(this));
+    }
+
+    public Builder setCaseFlag(boolean flag)
+    {
+      caseFlag = flag;
+      return(this);
+    }
+
+    public Builder setCollation(int mode, Locale locale, int strength)
+    {
+      collateLocale = locale;
+      collateMode = mode;
+      collateStrength = strength;
+      return(this);
+    }
+
+    public Builder setCopyFolder(File folder)
+    {
+      copyFolder = folder;
+      return(this);
+    }
+
+    public Builder setJournalMode(int mode)
+    {
+      journalMode = mode;
+      return(this);
+    }
+
+    public Builder setManifestFlag(boolean flag)
+    {
+      manifestFlag = flag;
+      return(this);
+    }
+
+    public Builder setMetricFile(File file)
+    {
+      metricFile = file;
+      return(this);
+    }
+
+    public Builder setMetricFlag(boolean flag)
+    {
+      metricFlag = flag;
+      return(this);
+    }
+
+    public Builder setPlanFile(File file)
+    {
+      planFile = file;
+      return(this);
+    }
+
+    public Builder setPlanFlag(boolean flag)
+    {
+      planFlag = flag;
+      return(this);
+    }
+
+    public Builder setProbeFlag(boolean flag)
+    {
+      probeFlag = flag;
+      return(this);
+    }
+
+    public Builder setProgressFlag(boolean flag)
+    {
+      progressFlag = flag;
+      return(this);
+    }
+
+    public Builder setRecurseFlag(boolean flag)
+    {
+      recurseFlag = flag;
+      return(this);
+    }
+
+    public Builder setSortOrder(int order)
+    {
+      sortOrder = order;
+      return(this);
+    }
+
+    public Builder setSortSpec(SortFatFolder2Spec spec)
+    {
+      sortSpec = spec;
+      return(this);
+    }
+
+    public Builder setStampFlag(boolean flag)
+    {
+      stampFlag = flag;
+      return(this);
+    }
+
+    public Builder setStrategy(int index)
+    {
+      strategy = index;
+      return(this);
+    }
+
+    public Builder setTagFile(File file)
+    {
+      tagFile = file;
+      return(this);
+    }
+
+    public Builder setTraceFile(File file)
+    {
+      traceFile = file;
+      return(this);
+    }
+
+    public Builder setVolumeFlag(boolean flag)
+    {
+      volumeFlag = flag;
+      return(this);
+    }
+
+  } // end of SortFatFolder2Options.Builder class
+
+} // end of SortFatFolder2Options class
+
+/* Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL. */
@@ -0,0 +1,193 @@
+/*
+  Sort FAT Folder #2 Spec - Compiled Sorting Keys for -k Option
+  Java class name: SortFatFolder2Spec
+  Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL.
+
+  A sorting specification from the -k(spec) option, such as "dir,ext,size:desc,
+  name", compiled once into a list of fields.  For each entry, encode() makes
+  one key string, where every field is written so that comparing the strings
+  character by character gives the order the user asked for:
+
+      date    date and time stamp, four characters of 16 bits each
+      dir     subfolders before files, one character
+      ext     extension (after the last dot) in lowercase, then a null
+      name    name key from -c0 to -c3 (or the original name), then a null
+      size    size in bytes, four characters; subfolders are zero
+      track   disc and track number from tags (see -f3), two characters
+
+  A field followed by ":desc" is reversed by subtracting each of its characters
+  from the largest character.  Nulls after text fields make a shorter text
+  come first, or last when reversed.  The engine sorts on the keys alone, with
+  the original names only to break ties, so there are no comparators for each
+  field and no file system calls while sorting.
+
+  Apache License or GNU General Public License
+  --------------------------------------------
+  SortFatFolder2Spec is free software and has been released under the terms
+  and conditions of the Apache License (version 2.0 or later) and/or the GNU
+  General Public License (GPL, version 2 or later).  This program is
+  distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the license(s) for more details.  You should have
+  received a copy of the licenses along with this program.  If not, see the
+  http://www.apache.org/licenses/ and http://www.gnu.org/licenses/ web pages.
+*/
+
+import java.util.*;               // calendars, dates, lists, maps, vectors
+
+public class SortFatFolder2Spec
+{
+  /* constants */
+
+  static final int FIELD_DATE = 0; // date and time stamp
+  static final int FIELD_DIR = 1; // subfolders before files
+  static final int FIELD_EXT = 2; // extension in lowercase
+  static final int FIELD_NAME = 3; // name key from engine
+  static final String[] FIELD_NAMES = {"date", "dir", "ext", "name", "size",
+    "track"};                     // field names by FIELD_* index
+  static final int FIELD_SIZE = 4; // size in bytes
+  static final int FIELD_TRACK = 5; // disc and track number
+
+  /* instance variables */
+
+  final boolean[] descending;     // true for each field in reverse order
+  final int[] fields;             // FIELD_* constant for each field
+  final String text;              // specification as given by user
+
+  public SortFatFolder2Spec(
+    String text,                  // specification as given by user
+    int[] fields,                 // FIELD_* constant for each field
+    boolean[] descending)         // true for each field in reverse order
+  {
+    this.descending = descending;
+    this.fields = fields;
+    this.text = text;
+  }
+
+/*
+  appendLong() method
+
+  Append a number as four characters of 16 bits each, with the sign bit
+  flipped, so that comparing characters compares the numbers.
+*/
+  static void appendLong(StringBuffer buffer, long value)
+  {
+    value ^= Long.MIN_VALUE;      // negative numbers before positive
+    buffer.append((char) (value >>> 48));
+    buffer.append((char) (value >>> 32));
+    buffer.append((char) (value >>> 16));
+    buffer.append((char) value);
+  }
+
+/*
+  compile() method
+
+  Return a compiled specification from comma-separated field names, each with
+  an optional ":asc" or ":desc", or <null> if the specification isn't valid.
+*/
+  static SortFatFolder2Spec compile(String text)
+  {
+    boolean[] descending;         // true for each field in reverse order
+    int[] fields;                 // FIELD_* constant for each field
+    int i, k;                     // index variables
+    String[] parts;               // field name, then direction
+    String[] words;               // fields from <text>
+
+    words = text.trim().toLowerCase(Locale.ENGLISH).split("\\s*,\\s*");
+    descending = new boolean[words.length];
+    fields = new int[words.length];
+    for (i = 0; i < words.length; i ++)
+    {
+      parts = words[i].split("\\s*:\\s*");
+      for (k = 0; (k < FIELD_NAMES.length) && (FIELD_NAMES[k].equals(parts[0])
+        == false); k ++)
+        ;                         // look for field name
+      if ((k == FIELD_NAMES.length) || (parts.length > 2) || ((parts.length
+        == 2) && (parts[1].equals("asc") == false) && (parts[1].equals("desc")
+        == false)))
+      {
+        return(null);             // unknown field or direction
+      }
+      descending[i] = (parts.length == 2) && parts[1].equals("desc");
+      fields[i] = k;
+    }
+    return(new SortFatFolder2Spec(text.trim(), fields, descending));
+  }
+
+/*
+  encode() method
+
+  Return the key for one entry.  The caller reads only the attributes that
+  needs() asks for, once per entry, and passes zero for the others.
+*/
+  String encode(
+    String nameKey,               // name key from engine, or <null> for name
+    String name,                  // file name without the path
+    boolean folder,               // true if entry is a subfolder
+    long size,                    // size in bytes, zero for subfolders
+    long date,                    // date and time stamp
+    int track)                    // sort key from tags
+  {
+    StringBuffer buffer;          // faster than String for multiple appends
+    int dot;                      // index of last dot in <name>
+    int i, k;                     // index variables
+    int start;                    // where this field starts in <buffer>
+
+    buffer = new StringBuffer(2 * name.length() + 16);
+    for (i = 0; i < fields.length; i ++)
+    {
+      start = buffer.length();
+      switch (fields[i])
+      {
+        case (FIELD_DATE):
+          appendLong(buffer, date);
+          break;
+        case (FIELD_DIR):
+          buffer.append(folder ? '\u0001' : '\u0002');
+          break;
+        case (FIELD_EXT):
+          dot = name.lastIndexOf('.');
+          if (dot > 0)            // ".name" has no extension
+            buffer.append(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+          buffer.append('\u0000');
+          break;
+        case (FIELD_NAME):
+          buffer.append((nameKey != null) ? nameKey : name);
+          buffer.append('\u0000');
+          break;
+        case (FIELD_SIZE):
+          appendLong(buffer, size);
+          break;
+        case (FIELD_TRACK):
+          buffer.append((char) (track >>> 16));
+          buffer.append((char) track);
+          break;
+      }
+      if (descending[i])          // reverse this field
+      {
+        for (k = start; k < buffer.length(); k ++)
+          buffer.setCharAt(k, (char) (0xFFFF - buffer.charAt(k)));
+      }
+    }
+    return(buffer.toString());
+  }
+
+/*
+  needs() method
+
+  Return true if the specification has the given field, so that the engine
+  reads only the attributes that it needs.
+*/
+  boolean needs(int field)
+  {
+    int i;                        // index variable
+
+    for (i = 0; i < fields.length; i ++)
+      if (fields[i] == field)
+        return(true);
+    return(false);
+  }
+
+} // end of SortFatFolder2Spec class
+
+/* Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL. */